@@ -0,0 +1,204 @@
+package huffPackage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *
+ * JMH benchmarks of each stage of Huffman coding, the same ones BenchmarkHuffman
+ * runs in a single JVM: LetterFrequencies, the HuffmanTree build, encoding,
+ * decoding (also of the text's bytes, in one stream or in InterleavedHuffman
+ * streams), and the BufferedBitWriter / BufferedBitReader on their own.
+ *
+ * Every benchmark runs in forked JVMs, with its results consumed by a Blackhole.
+ * Besides operations per second, each reports a "bytes" counter: the MB of text
+ * (or of codes, for the bit benchmarks) handled per second is that rate / 1e6.
+ * Allocation is measured separately, with the gc profiler:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar -prof gc
+ *
+ * run from the project folder, so the inputs Test1.txt to Test5.txt are found.
+ * The two synthetic inputs are BenchmarkHuffman's: uniform random letters and a
+ * skewed (geometric) distribution.
+ *
+ * @author Armand
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class HuffmanBenchmark {
+
+	/**
+	 * One input text, and what the benchmarks of later stages start from
+	 */
+	@State(Scope.Benchmark)
+	public static class Text {
+		@Param({ "Test1.txt", "Test2.txt", "Test3.txt", "Test4.txt", "Test5.txt", "synthetic-uniform", "synthetic-skewed" })
+		public String input;
+
+		String text;
+		long textBytes;          // a text of n characters holds 2n bytes
+		LetterFrequencies lf;
+		HuffmanTree tree;
+		byte[] compressed;       // the text coded with tree
+		byte[] bytes;            // the text as UTF-8
+		byte[] oneStream;        // bytes coded by BlockCompressor
+		byte[] fourStreams;      // bytes coded by InterleavedHuffman
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			if (input.startsWith("synthetic-"))
+				text = BenchmarkHuffman.syntheticText(input.equals("synthetic-skewed"));
+			else
+				text = new FileManipulation().Read(input);
+			textBytes = 2L * text.length();
+			lf = new LetterFrequencies(text);
+			tree = new HuffmanTree(lf).canonical();
+			compressed = BenchmarkHuffman.encode(tree, text, new ByteArrayOutputStream(text.length()));
+			bytes = text.getBytes(StandardCharsets.UTF_8);
+			oneStream = BlockCompressor.encodeBlock(bytes, bytes.length);
+			fourStreams = InterleavedHuffman.encode(bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Random codes of 1 to 20 bits, and their bits written out
+	 */
+	@State(Scope.Benchmark)
+	public static class Codes {
+		long[] codes;
+		int[] lengths;
+		long codeBytes;          // the number of bytes the codes take
+		byte[] written;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			Random random = new Random(13);
+			codes = new long[BenchmarkHuffman.SYNTHETIC_LENGTH];
+			lengths = new int[codes.length];
+			long bits = 0;
+			for (int i = 0; i < codes.length; i++) {
+				codes[i] = random.nextLong();
+				lengths[i] = 1 + random.nextInt(20);
+				bits += lengths[i];
+			}
+			codeBytes = bits / 8;
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) codeBytes + 16);
+			BufferedBitWriter bbw = new BufferedBitWriter(out);
+			for (int i = 0; i < codes.length; i++)
+				bbw.writeBits(codes[i], lengths[i]);
+			bbw.close();
+			written = out.toByteArray();
+		}
+	}
+
+	/**
+	 * Bytes handled, reported by JMH as a rate next to the operations
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Bytes {
+		public long bytes;
+	}
+
+	@Benchmark
+	public LetterFrequencies frequencies(Text t, Bytes b) {
+		b.bytes += t.textBytes;
+		return new LetterFrequencies(t.text);
+	}
+
+	@Benchmark
+	public LetterFrequencies frequenciesParallel(Text t, Bytes b) {
+		b.bytes += t.textBytes;
+		return new LetterFrequencies(t.text, Runtime.getRuntime().availableProcessors());
+	}
+
+	@Benchmark
+	public HuffmanTree treeBuild(Text t, Bytes b) {
+		b.bytes += t.textBytes;
+		return new HuffmanTree(t.lf);
+	}
+
+	@Benchmark
+	public void encode(Text t, Bytes b, Blackhole bh) throws IOException {
+		b.bytes += t.textBytes;
+		BenchmarkHuffman.encode(t.tree, t.text, new BlackholeOutputStream(bh));
+	}
+
+	@Benchmark
+	public long decode(Text t, Bytes b) throws IOException {
+		b.bytes += t.textBytes;
+		return BenchmarkHuffman.decode(t.tree, t.compressed, t.text.length());
+	}
+
+	@Benchmark
+	public byte[] decodeOneStream(Text t, Bytes b) throws IOException {
+		b.bytes += t.bytes.length;
+		return BlockCompressor.decodeBlock(t.oneStream, t.bytes.length);
+	}
+
+	@Benchmark
+	public byte[] decodeFourStreams(Text t, Bytes b) throws IOException {
+		b.bytes += t.bytes.length;
+		return InterleavedHuffman.decode(t.fourStreams);
+	}
+
+	@Benchmark
+	public void bitWriter(Codes c, Bytes b, Blackhole bh) throws IOException {
+		b.bytes += c.codeBytes;
+		BufferedBitWriter bbw = new BufferedBitWriter(new BlackholeOutputStream(bh));
+		for (int i = 0; i < c.codes.length; i++)
+			bbw.writeBits(c.codes[i], c.lengths[i]);
+		bbw.close();
+	}
+
+	@Benchmark
+	public long bitReader(Codes c, Bytes b) throws IOException {
+		b.bytes += c.codeBytes;
+		BufferedBitReader bbr = new BufferedBitReader(new ByteArrayInputStream(c.written));
+		long sum = 0;
+		for (int i = 0; i < c.codes.length; i++)
+			sum += bbr.readBits(c.lengths[i]);
+		return sum;
+	}
+
+	// hands everything written to it to a Blackhole, so the writing cannot be optimised away
+	static class BlackholeOutputStream extends OutputStream {
+		private Blackhole bh;
+
+		BlackholeOutputStream(Blackhole bh) {
+			this.bh = bh;
+		}
+
+		public void write(int b) {
+			bh.consume(b);
+		}
+
+		public void write(byte[] b, int off, int len) {
+			bh.consume(b);
+			bh.consume(off);
+			bh.consume(len);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package huffPackage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * InputStream that decompresses data written by an AdaptiveHuffmanOutputStream,
+ * updating its own AdaptiveHuffmanTree exactly as the writer did.
+ *
+ * The source may still be being written: a byte is returned as soon as its code
+ * has arrived, except that the last 2 bytes received are held back until more
+ * follow, since the end of the data carries a bit count (see BufferedBitReader).
+ * Closing this stream closes the source stream.
+ *
+ * @author Armand
+ */
+public class AdaptiveHuffmanInputStream extends InputStream {
+
+    private AdaptiveHuffmanTree tree = new AdaptiveHuffmanTree(); // updated after every byte
+    private BufferedBitReader bits;   // supplies the codes
+    private boolean ended;            // EndOfBytes was decoded
+
+    /**
+     * @param in the stream holding the compressed data
+     * @throws IOException
+     */
+    public AdaptiveHuffmanInputStream(InputStream in) throws IOException {
+        bits = new BufferedBitReader(in);
+    }
+
+    /**
+     * Decodes one byte
+     *
+     * @return the byte (0 to 255), or -1 at the end of the data
+     * @throws IOException if the compressed data is corrupt
+     */
+    @Override
+    public int read() throws IOException {
+        if (ended)
+            return -1;
+        int symbol;
+        try {
+            symbol = tree.decodeCharacter(bits);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+        }
+        if (symbol == Integer.MAX_VALUE)
+            throw new IOException("Compressed data is truncated");
+        if (symbol == AdaptiveHuffmanTree.EndOfBytes) {
+            ended = true;
+            return -1;
+        }
+        return symbol;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        int n = 0;
+        while (n < len) {
+            int c = read();
+            if (c == -1)
+                break;
+            b[off + n++] = (byte) c;
+            if (bits.bufferedBits() < AdaptiveHuffmanTree.MAX_SYMBOL_BITS)
+                break; // the next code may not have fully arrived: do not wait for it with bytes to return
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        bits.close();
+    }
+}
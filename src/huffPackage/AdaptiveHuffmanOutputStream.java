@@ -0,0 +1,69 @@
+package huffPackage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream that compresses the bytes written to it in a single pass with an
+ * AdaptiveHuffmanTree, for data that cannot be counted beforehand (network
+ * streams, logs being written). There is no header: the compressed data is only
+ * the codes, ended by EndOfBytes when the stream is closed.
+ *
+ * flush() passes on every whole byte of code written so far, so that an
+ * AdaptiveHuffmanInputStream on the other end can decode it straight away.
+ * Closing the stream closes the target stream.
+ *
+ * @author Armand
+ */
+public class AdaptiveHuffmanOutputStream extends OutputStream {
+
+    private AdaptiveHuffmanTree tree = new AdaptiveHuffmanTree(); // updated after every byte
+    private BufferedBitWriter bits;   // receives the codes
+    private boolean closed;
+
+    /**
+     * @param out the stream receiving the compressed data
+     */
+    public AdaptiveHuffmanOutputStream(OutputStream out) {
+        bits = new BufferedBitWriter(out);
+    }
+
+    /**
+     * Encodes one byte
+     */
+    @Override
+    public void write(int b) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        tree.encodeCharacter(b & 0xFF, bits);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        for (int i = off; i < off + len; i++)
+            tree.encodeCharacter(b[i] & 0xFF, bits);
+    }
+
+    /**
+     * Writes out the codes of the bytes written so far, except for the last few bits
+     * that do not fill a byte
+     */
+    @Override
+    public void flush() throws IOException {
+        if (!closed)
+            bits.flush();
+    }
+
+    /**
+     * Writes EndOfBytes and closes the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        tree.encodeCharacter(AdaptiveHuffmanTree.EndOfBytes, bits);
+        bits.close();
+    }
+}
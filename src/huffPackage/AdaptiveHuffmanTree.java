@@ -0,0 +1,204 @@
+package huffPackage;
+import java.io.IOException;
+import java.util.Iterator;
+
+import huffPackage.HuffmanTree.HuffmanNode;
+
+/**
+ * AdaptiveHuffmanTree is a Huffman tree over bytes that is updated after every
+ * symbol (the FGK algorithm), so data can be coded in a single pass with no
+ * frequencies known in advance and no header: the decoder starts from the same
+ * empty tree and makes the same updates as the encoder.
+ *
+ * The tree starts as a single NYT ("not yet transmitted") leaf. A byte seen for
+ * the first time is sent as the code of NYT followed by the byte itself in
+ * LITERAL_BITS bits, and NYT is split into a new NYT and a leaf for the byte.
+ * The nodes are numbered so that weights never decrease with the numbers
+ * (the sibling property), and the update after a symbol walks from its leaf to
+ * the root, swapping each node with the highest numbered node of the same
+ * weight before incrementing it.
+ *
+ * Weights are ints, so a tree codes at most Integer.MAX_VALUE symbols; longer
+ * streams must be cut into several.
+ *
+ * @author Armand
+ */
+public class AdaptiveHuffmanTree {
+
+	public static final int EndOfBytes = HuffmanTree.EndOfBytes; // ends a stream, sent like a byte
+	public static final int LITERAL_BITS = 9; // bits of a first occurrence (0 to EndOfBytes)
+
+	private static final int NYT = EndOfBytes + 1; // letter of the not yet transmitted leaf
+	private static final int MAX_NODES = 2 * (NYT + 1) - 1; // leaves for every symbol and NYT
+	static final int MAX_SYMBOL_BITS = NYT + LITERAL_BITS; // deepest possible leaf plus a literal
+
+	HuffmanNode root; // root of the tree, always numbered MAX_NODES-1
+	HuffmanNode nyt; // the leaf standing for every symbol not yet seen, always the lowest numbered
+	HuffmanNode[] leafWhereLetterIs; // leaf of each symbol seen so far
+	HuffmanNode[] nodes; // nodes by number, from nyt.number to MAX_NODES-1
+	private int[] path; // bits of the code being written, from the leaf up
+
+	/**
+	 * Creates the empty tree both the encoder and the decoder start with
+	 */
+	public AdaptiveHuffmanTree() {
+		leafWhereLetterIs = new HuffmanNode[EndOfBytes + 1];
+		nodes = new HuffmanNode[MAX_NODES];
+		path = new int[MAX_NODES];
+		root = nyt = new HuffmanNode(NYT, 0, null, null, null);
+		root.number = MAX_NODES - 1;
+		nodes[root.number] = root;
+	}
+
+	/**
+	 * Encodes a byte (or EndOfBytes) as characters '0' and '1' into a BitFeedOut,
+	 * then updates the tree
+	 *
+	 * @param c the symbol to encode (0 to EndOfBytes)
+	 * @param bitStream receives the bits
+	 */
+	public void encodeCharacter(int c, BitFeedOut bitStream) {
+		checkSymbol(c);
+		HuffmanNode leaf = leafWhereLetterIs[c];
+		int length = collectPath(leaf == null ? nyt : leaf);
+		for (int i = length - 1; i >= 0; i--)
+			bitStream.putNext(path[i] == 0 ? '0' : '1');
+		if (leaf == null)
+			for (int i = LITERAL_BITS - 1; i >= 0; i--)
+				bitStream.putNext(((c >>> i) & 1) == 0 ? '0' : '1');
+		update(c);
+	}
+
+	/**
+	 * Encodes a byte (or EndOfBytes) into a BufferedBitWriter, up to 64 bits per
+	 * write, then updates the tree
+	 *
+	 * @param c the symbol to encode (0 to EndOfBytes)
+	 * @param bits receives the bits
+	 * @throws IOException
+	 */
+	public void encodeCharacter(int c, BufferedBitWriter bits) throws IOException {
+		checkSymbol(c);
+		HuffmanNode leaf = leafWhereLetterIs[c];
+		int length = collectPath(leaf == null ? nyt : leaf);
+		long code = 0;
+		int codeLength = 0;
+		for (int i = length - 1; i >= 0; i--) {
+			code = (code << 1) | path[i];
+			if (++codeLength == 64) {
+				bits.writeBits(code, 64);
+				code = 0;
+				codeLength = 0;
+			}
+		}
+		bits.writeBits(code, codeLength);
+		if (leaf == null)
+			bits.writeBits(c, LITERAL_BITS);
+		update(c);
+	}
+
+	/**
+	 * Decodes the next symbol from a stream of bits, then updates the tree
+	 *
+	 * @param bitStream supplies the bits (0 or 1)
+	 * @return the symbol (0 to EndOfBytes), or Integer.MAX_VALUE if the bits ran out
+	 *         before the end of a symbol
+	 * @throws IllegalStateException if the bits do not come from an AdaptiveHuffmanTree
+	 */
+	public int decodeCharacter(Iterator<Byte> bitStream) {
+		HuffmanNode current = root;
+		while (!current.isLeaf()) {
+			if (!bitStream.hasNext())
+				return Integer.MAX_VALUE;
+			current = bitStream.next() == 0 ? current.leftChild() : current.rightChild();
+		}
+		int c = current.getLetter();
+		if (current == nyt) {
+			c = 0;
+			for (int i = 0; i < LITERAL_BITS; i++) {
+				if (!bitStream.hasNext())
+					return Integer.MAX_VALUE;
+				c = (c << 1) | bitStream.next();
+			}
+			if (c > EndOfBytes || leafWhereLetterIs[c] != null)
+				throw new IllegalStateException("Corrupt adaptive Huffman data: literal " + c);
+		}
+		update(c);
+		return c;
+	}
+
+	private static void checkSymbol(int c) {
+		if (c < 0 || c > EndOfBytes)
+			throw new IllegalArgumentException("Symbol out of range: " + c);
+	}
+
+	/*
+	 * Stores the code of node in path, last bit first, and returns its length
+	 */
+	private int collectPath(HuffmanNode node) {
+		int length = 0;
+		for (HuffmanNode current = node; current.parent() != null; current = current.parent())
+			path[length++] = current.parent().rightChild() == current ? 1 : 0;
+		return length;
+	}
+
+	/*
+	 * Adds one occurrence of c, which was just coded with the tree as it was
+	 */
+	private void update(int c) {
+		if (root.getFrequency() == Integer.MAX_VALUE)
+			throw new IllegalStateException("Too many symbols for one adaptive Huffman tree");
+
+		HuffmanNode node = leafWhereLetterIs[c];
+		if (node == null) { // NYT becomes a parent of the new NYT (left) and of a leaf for c (right)
+			HuffmanNode parent = nyt;
+			HuffmanNode leaf = new HuffmanNode(c, 0, parent, null, null);
+			nyt = new HuffmanNode(NYT, 0, parent, null, null);
+			parent.setLeftChild(nyt);
+			parent.setRightChild(leaf);
+			parent.letter = 0;
+			leaf.number = parent.number - 1;
+			nyt.number = parent.number - 2;
+			nodes[leaf.number] = leaf;
+			nodes[nyt.number] = nyt;
+			leafWhereLetterIs[c] = leaf;
+			node = leaf;
+		}
+
+		while (node != null) {
+			HuffmanNode leader = node;
+			while (leader.number + 1 < MAX_NODES && nodes[leader.number + 1].getFrequency() == node.getFrequency())
+				leader = nodes[leader.number + 1];
+			if (leader != node && leader != node.parent())
+				swap(node, leader);
+			node.setFrequency(node.getFrequency() + 1);
+			node = node.parent();
+		}
+	}
+
+	/*
+	 * Exchanges the places of two nodes of equal weight, neither an ancestor of the other,
+	 * along with their subtrees and numbers
+	 */
+	private void swap(HuffmanNode a, HuffmanNode b) {
+		HuffmanNode parentA = a.parent(), parentB = b.parent();
+		if (parentA == parentB) {
+			HuffmanNode left = parentA.leftChild();
+			parentA.setLeftChild(parentA.rightChild());
+			parentA.setRightChild(left);
+		}
+		else {
+			if (parentA.leftChild() == a) parentA.setLeftChild(b);
+			else parentA.setRightChild(b);
+			if (parentB.leftChild() == b) parentB.setLeftChild(a);
+			else parentB.setRightChild(a);
+			a.setParent(parentB);
+			b.setParent(parentA);
+		}
+		int number = a.number;
+		a.number = b.number;
+		b.number = number;
+		nodes[a.number] = a;
+		nodes[b.number] = b;
+	}
+}
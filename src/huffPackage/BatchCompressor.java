@@ -0,0 +1,366 @@
+package huffPackage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compresses or decompresses many files at once: every file given, and every file
+ * under the directories given, each into the format of FileManipulation.CompressFile.
+ * Compressed files get the SUFFIX appended to their name, which decompression removes.
+ *
+ * Each file is a task on an executor of threads that mostly wait for I/O: virtual
+ * threads where the Java runtime has them (21 or later), otherwise a cached pool.
+ * The coding itself, which needs a core, only runs while holding one of
+ * cpuThreads permits. Reading and writing are bounded separately: at most ioTasks
+ * files are in progress at a time, so that many reads and writes can be waiting on
+ * the disk while the cores code, yet listing tens of thousands of files does not queue
+ * tens of thousands of tasks. Files that are, and decode into, at most IN_MEMORY_LIMIT
+ * bytes (as the header of a compressed file says) are read in one go before being
+ * coded, while holding as many of MEMORY_BUDGET permits as bytes read and decoded;
+ * larger files are streamed through fixed buffers while holding a cpu permit, which
+ * is handed back during every read and write.
+ *
+ * Usage: java huffPackage.BatchCompressor compress|decompress [-o outputDirectory] path ...
+ *
+ * @author Armand
+ */
+public class BatchCompressor {
+
+	public static final String SUFFIX = ".huf";
+	static final int IN_MEMORY_LIMIT = 16 << 20;
+	static final int MEMORY_BUDGET = 256 << 20;  // bytes read and decoded in one go held at a time
+	public static final int DEFAULT_IO_TASKS = 256;
+
+	private Path outputDirectory;    // where the results go, null for next to their input
+	private Semaphore cpuPermits;    // held while coding
+	private Semaphore inFlight;      // held from submitting a file until it is done
+	private Semaphore memoryPermits; // one per byte read and decoded in one go, held until written
+
+	/**
+	 * Codes as many files at a time as there are cores, writing the results next to their input
+	 */
+	public BatchCompressor() {
+		this(Runtime.getRuntime().availableProcessors(), null);
+	}
+
+	/**
+	 * @param cpuThreads the number of files coded at the same time
+	 * @param outputDirectory the directory the results are written into, keeping the paths
+	 *        below the directories given, or null to write them next to their input
+	 */
+	public BatchCompressor(int cpuThreads, Path outputDirectory) {
+		this(cpuThreads, DEFAULT_IO_TASKS, outputDirectory);
+	}
+
+	/**
+	 * @param cpuThreads the number of files coded at the same time
+	 * @param ioTasks the number of files in progress (being read, coded or written) at the same time
+	 * @param outputDirectory the directory the results are written into, keeping the paths
+	 *        below the directories given, or null to write them next to their input
+	 */
+	public BatchCompressor(int cpuThreads, int ioTasks, Path outputDirectory) {
+		if (cpuThreads < 1 || ioTasks < 1)
+			throw new IllegalArgumentException("Invalid number of threads " + cpuThreads + " or tasks " + ioTasks);
+		this.outputDirectory = outputDirectory;
+		cpuPermits = new Semaphore(cpuThreads);
+		inFlight = new Semaphore(ioTasks);
+		memoryPermits = new Semaphore(MEMORY_BUDGET);
+	}
+
+	/**
+	 * Totals of a batch
+	 */
+	public static class Result {
+		final AtomicLong files = new AtomicLong();    // files done
+		final AtomicLong failed = new AtomicLong();   // files that could not be coded
+		final AtomicLong bytesIn = new AtomicLong();  // bytes read
+		final AtomicLong bytesOut = new AtomicLong(); // bytes written
+		long nanos;                                   // time taken by the whole batch
+
+		public long getFiles() { return files.get(); }
+
+		public long getFailed() { return failed.get(); }
+
+		public long getBytesIn() { return bytesIn.get(); }
+
+		public long getBytesOut() { return bytesOut.get(); }
+
+		// MB of input per second
+		public double getThroughput() {
+			return nanos == 0 ? 0 : bytesIn.get() / 1e6 / (nanos / 1e9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d files (%d failed), %d bytes in, %d bytes out, %.2f s, %.1f MB/s",
+					getFiles(), getFailed(), getBytesIn(), getBytesOut(), nanos / 1e9, getThroughput());
+		}
+	}
+
+	/**
+	 * Compresses every file given and every file below the directories given
+	 * (except those already ending in SUFFIX)
+	 */
+	public Result compress(List<Path> paths) throws IOException, InterruptedException {
+		return run(paths, true);
+	}
+
+	/**
+	 * Decompresses every file ending in SUFFIX given or below the directories given
+	 */
+	public Result decompress(List<Path> paths) throws IOException, InterruptedException {
+		return run(paths, false);
+	}
+
+	private Result run(List<Path> paths, boolean compress) throws IOException, InterruptedException {
+		Result result = new Result();
+		long start = System.nanoTime();
+		ExecutorService executor = newIoExecutor();
+		try {
+			for (Path root : paths) {
+				for (Path file : listFiles(root)) {
+					if (file.toString().endsWith(SUFFIX) == compress)
+						continue;
+					Path target = target(root, file, compress);
+					inFlight.acquire();
+					executor.execute(() -> {
+						try {
+							codeFile(file, target, compress, result);
+							result.files.incrementAndGet();
+						} catch (IOException | RuntimeException e) {
+							result.failed.incrementAndGet();
+							System.err.println("FAILED " + file + ": " + e);
+						} finally {
+							inFlight.release();
+						}
+					});
+				}
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/*
+	 * The regular files at or below a path, in a stable order
+	 */
+	private static List<Path> listFiles(Path root) throws IOException {
+		if (!Files.isDirectory(root)) {
+			List<Path> single = new ArrayList<Path>();
+			single.add(root);
+			return single;
+		}
+		try (Stream<Path> walk = Files.walk(root)) {
+			return walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+	}
+
+	/*
+	 * The file a file is coded into
+	 */
+	private Path target(Path root, Path file, boolean compress) {
+		String name = file.getFileName().toString();
+		name = compress ? name + SUFFIX : name.substring(0, name.length() - SUFFIX.length());
+		if (outputDirectory == null)
+			return file.resolveSibling(name);
+		Path relative = Files.isDirectory(root) ? root.relativize(file) : file.getFileName();
+		return outputDirectory.resolve(relative).resolveSibling(name);
+	}
+
+	private void codeFile(Path file, Path target, boolean compress, Result result) throws IOException {
+		long size = Files.size(file);
+		long decodedSize = compress ? size : decodedSize(file, size);
+		if (target.getParent() != null)
+			Files.createDirectories(target.getParent());
+		if (size > IN_MEMORY_LIMIT || decodedSize < 0 || decodedSize > IN_MEMORY_LIMIT) {
+			cpuPermits.acquireUninterruptibly(); // handed back during every read and write
+			try {
+				result.bytesIn.addAndGet(size);
+				result.bytesOut.addAndGet(compress ? streamCompress(file, target) : streamDecompress(file, target));
+			} finally {
+				cpuPermits.release();
+			}
+			return;
+		}
+
+		int memory = (int) (size + decodedSize); // the bytes read and the bytes decoded (or coded, fewer than 6 more)
+		memoryPermits.acquireUninterruptibly(memory);
+		try {
+			byte[] input = Files.readAllBytes(file);
+			byte[] output;
+			cpuPermits.acquireUninterruptibly();
+			try {
+				output = compress ? BlockCompressor.encodeBlock(input, input.length)
+						: BlockCompressor.decodeBlock(input, (int) decodedSize);
+			} finally {
+				cpuPermits.release();
+			}
+			Files.write(target, output);
+			result.bytesIn.addAndGet(input.length);
+			result.bytesOut.addAndGet(output.length);
+		} finally {
+			memoryPermits.release(memory);
+		}
+	}
+
+	/*
+	 * The number of bytes a compressed file decodes into, from its header, or
+	 * CompressedFileHeader.UNKNOWN_LENGTH if the header does not say
+	 */
+	private static long decodedSize(Path file, long size) throws IOException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file.toFile()))) {
+			CompressedFileHeader header = CompressedFileHeader.read(in);
+			if (header.isStored())
+				return size - CompressedFileHeader.STORED_HEADER_SIZE;
+			return header.getOriginalLength();
+		}
+	}
+
+	private long streamCompress(Path file, Path target) throws IOException {
+		LetterFrequencies lf;
+		try (InputStream in = new OffCpuInputStream(new FileInputStream(file.toFile()))) {
+			lf = new LetterFrequencies(in);
+		}
+		try (InputStream in = new OffCpuInputStream(new FileInputStream(file.toFile()));
+			 OutputStream out = new HuffmanOutputStream(new OffCpuOutputStream(new FileOutputStream(target.toFile())), lf)) {
+			copy(in, out);
+		}
+		return Files.size(target);
+	}
+
+	private long streamDecompress(Path file, Path target) throws IOException {
+		try (InputStream in = new HuffmanInputStream(new OffCpuInputStream(new FileInputStream(file.toFile())));
+			 OutputStream out = new OffCpuOutputStream(new BufferedOutputStream(new FileOutputStream(target.toFile()), 1 << 16))) {
+			return copy(in, out);
+		}
+	}
+
+	/*
+	 * Stream reading a file for a task holding a cpu permit: the permit is handed back
+	 * while waiting for the disk, so other files can be coded meanwhile
+	 */
+	private class OffCpuInputStream extends FilterInputStream {
+		OffCpuInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			cpuPermits.release();
+			try {
+				return in.read();
+			} finally {
+				cpuPermits.acquireUninterruptibly();
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			cpuPermits.release();
+			try {
+				return in.read(b, off, len);
+			} finally {
+				cpuPermits.acquireUninterruptibly();
+			}
+		}
+	}
+
+	/*
+	 * Stream writing a file for a task holding a cpu permit, handing it back while writing
+	 */
+	private class OffCpuOutputStream extends FilterOutputStream {
+		OffCpuOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			cpuPermits.release();
+			try {
+				out.write(b, off, len);
+			} finally {
+				cpuPermits.acquireUninterruptibly();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			cpuPermits.release();
+			try {
+				out.flush();
+			} finally {
+				cpuPermits.acquireUninterruptibly();
+			}
+		}
+	}
+
+	private static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		long copied = 0;
+		int n = in.read(buffer);
+		while (n != -1) {
+			out.write(buffer, 0, n);
+			copied += n;
+			n = in.read(buffer);
+		}
+		return copied;
+	}
+
+	/*
+	 * A virtual thread per task when the runtime has them; this code is compiled
+	 * for Java 11, so they are looked up by reflection
+	 */
+	static ExecutorService newIoExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2 || !args[0].equals("compress") && !args[0].equals("decompress")) {
+			System.out.println("Usage: java huffPackage.BatchCompressor compress|decompress [-o outputDirectory] path ...");
+			return;
+		}
+		int first = 1;
+		Path outputDirectory = null;
+		if (args[1].equals("-o") && args.length > 3) {
+			outputDirectory = Paths.get(args[2]);
+			first = 3;
+		}
+		List<Path> paths = new ArrayList<Path>();
+		for (int i = first; i < args.length; i++)
+			paths.add(Paths.get(args[i]));
+
+		BatchCompressor batch = new BatchCompressor(Runtime.getRuntime().availableProcessors(), outputDirectory);
+		Result result = args[0].equals("compress") ? batch.compress(paths) : batch.decompress(paths);
+		System.out.println(result);
+	}
+}
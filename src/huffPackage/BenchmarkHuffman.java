@@ -0,0 +1,193 @@
+package huffPackage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 
+ * Main program measuring each stage of Huffman coding separately, so every
+ * optimisation can be compared before and after with repeatable numbers:
+ * LetterFrequencies, the HuffmanTree build, encoding, decoding (also of the
+ * text's bytes, in one stream or in InterleavedHuffman streams), and the
+ * BufferedBitWriter / BufferedBitReader on their own.
+ * 
+ * Each benchmark runs warm-up iterations (to let the JIT compile it) and then
+ * measured iterations, reporting the median throughput in MB of text per second
+ * and the bytes allocated per operation (from the HotSpot thread allocation counter).
+ * That counter only covers the calling thread, so allocation is not reported for
+ * benchmarks whose work runs on other threads (frequencies-par).
+ * 
+ * The numbers are indicative, not rigorous: everything runs in a single JVM (no
+ * forks, so one profile and one JIT history for all benchmarks), and the results are
+ * only kept from dead-code elimination by summing them into a static field. The JMH
+ * module in the benchmarks folder (HuffmanBenchmark) runs the same benchmarks in forked
+ * JVMs with a Blackhole; use it when a difference has to be trusted.
+ * 
+ * Inputs are Test1.txt to Test5.txt (or the files given as arguments) and two
+ * synthetic texts built from a fixed seed: uniform random letters and a skewed
+ * (geometric) distribution.
+ * 
+ * Usage: java huffPackage.BenchmarkHuffman [file ...]
+ * 
+ * @author Armand
+ */
+public class BenchmarkHuffman {
+	
+	static final int WARMUP_ITERATIONS = 5;
+	static final int MEASURED_ITERATIONS = 10;
+	static final int SYNTHETIC_LENGTH = 1 << 20;
+	
+	// one operation of a benchmark; returns a value depending on its work so it is not optimised away
+	interface Operation {
+		long run() throws IOException;
+	}
+	
+	static long sink; // keeps the results of the operations alive
+	
+	public static void main(String[] args) throws IOException {
+		String[] files = args.length > 0 ? args : new String[] {
+				"Test1.txt", "Test2.txt", "Test3.txt", "Test4.txt", "Test5.txt" };
+		FileManipulation rf = new FileManipulation();
+		
+		System.out.println("Indicative numbers: single JVM, no forks, no dead-code elimination guard beyond a sink (see benchmarks/pom.xml for the JMH runs)");
+		System.out.printf("%-22s %-16s %12s %16s%n", "input", "benchmark", "MB/s", "alloc bytes/op");
+		for (String file : files)
+			benchmarkText(file, rf.Read(file));
+		benchmarkText("synthetic-uniform", syntheticText(false));
+		benchmarkText("synthetic-skewed", syntheticText(true));
+		benchmarkBits();
+		System.out.println("(checksum " + sink + ")");
+	}
+	
+	// benchmarks every stage over one text
+	static void benchmarkText(String name, String text) throws IOException {
+		final String t = text;
+		final long mb = 2L * text.length(); // a text of n characters holds 2n bytes
+		final LetterFrequencies lf = new LetterFrequencies(t);
+		final HuffmanTree tree = new HuffmanTree(lf).canonical();
+		final byte[] compressed = encode(tree, t, new ByteArrayOutputStream(text.length()));
+		
+		measure(name, "frequencies", mb, () -> new LetterFrequencies(t).getLetters().length);
+		measure(name, "frequencies-par", mb, false, () -> new LetterFrequencies(t, Runtime.getRuntime().availableProcessors()).getLetters().length);
+		measure(name, "tree-build", mb, () -> new HuffmanTree(lf).getMaxCodeLength());
+		measure(name, "encode", mb, () -> encode(tree, t, new NullOutputStream()).length);
+		measure(name, "decode", mb, () -> decode(tree, compressed, t.length()));
+		
+		final byte[] bytes = t.getBytes(StandardCharsets.UTF_8);
+		final byte[] oneStream = BlockCompressor.encodeBlock(bytes, bytes.length);
+		final byte[] fourStreams = InterleavedHuffman.encode(bytes, 0, bytes.length);
+		measure(name, "decode-1-stream", bytes.length, () -> BlockCompressor.decodeBlock(oneStream, bytes.length).length);
+		measure(name, "decode-4-streams", bytes.length, () -> InterleavedHuffman.decode(fourStreams).length);
+	}
+	
+	// benchmarks the bit writer and reader alone, with codes of random lengths
+	static void benchmarkBits() throws IOException {
+		Random random = new Random(13);
+		final int count = SYNTHETIC_LENGTH;
+		final long[] codes = new long[count];
+		final int[] lengths = new int[count];
+		long bits = 0;
+		for (int i = 0; i < count; i++) {
+			codes[i] = random.nextLong();
+			lengths[i] = 1 + random.nextInt(20);
+			bits += lengths[i];
+		}
+		final long mb = bits / 8;
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		BufferedBitWriter w = new BufferedBitWriter(written);
+		for (int i = 0; i < count; i++) w.writeBits(codes[i], lengths[i]);
+		w.close();
+		final byte[] data = written.toByteArray();
+		
+		measure("random-codes", "bit-writer", mb, () -> {
+			BufferedBitWriter bbw = new BufferedBitWriter(new NullOutputStream());
+			for (int i = 0; i < count; i++) bbw.writeBits(codes[i], lengths[i]);
+			bbw.close();
+			return count;
+		});
+		measure("random-codes", "bit-reader", mb, () -> {
+			BufferedBitReader bbr = new BufferedBitReader(new ByteArrayInputStream(data));
+			long sum = 0;
+			for (int i = 0; i < count; i++) sum += bbr.readBits(lengths[i]);
+			return sum;
+		});
+	}
+	
+	static byte[] encode(HuffmanTree tree, String text, OutputStream out) throws IOException {
+		BufferedBitWriter bbw = new BufferedBitWriter(out);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			bbw.writeBits(tree.codeBits[c], tree.codeLength[c]);
+		}
+		int end = tree.getEndOfText();
+		bbw.writeBits(tree.codeBits[end], tree.codeLength[end]);
+		bbw.close();
+		return out instanceof ByteArrayOutputStream ? ((ByteArrayOutputStream) out).toByteArray() : new byte[0];
+	}
+	
+	static long decode(HuffmanTree tree, byte[] compressed, int length) throws IOException {
+		BufferedBitReader bbr = new BufferedBitReader(new ByteArrayInputStream(compressed));
+		long sum = 0;
+		for (int i = 0; i < length; i++) sum += tree.decodeCharacter(bbr);
+		return sum;
+	}
+	
+	static String syntheticText(boolean skewed) {
+		Random random = new Random(skewed ? 2 : 1);
+		char[] text = new char[SYNTHETIC_LENGTH];
+		for (int i = 0; i < text.length; i++) {
+			if (skewed) {
+				int letter = 0;
+				while (letter < 60 && random.nextInt(3) != 0) letter++; // geometric, p = 1/3
+				text[i] = (char) (' ' + letter);
+			}
+			else text[i] = (char) (' ' + random.nextInt(95));
+		}
+		return new String(text);
+	}
+	
+	// runs the warm-up and measured iterations of op and prints the median results
+	static void measure(String input, String benchmark, long bytesPerOp, Operation op) throws IOException {
+		measure(input, benchmark, bytesPerOp, true, op);
+	}
+	
+	// same, printing n/a for the allocation unless op does all its work on the calling thread
+	static void measure(String input, String benchmark, long bytesPerOp, boolean sameThread, Operation op) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) sink += op.run();
+		
+		double[] mbPerSecond = new double[MEASURED_ITERATIONS];
+		long[] allocated = new long[MEASURED_ITERATIONS];
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			sink += op.run();
+			long time = System.nanoTime() - start;
+			allocated[i] = allocatedBytes() - allocatedBefore;
+			mbPerSecond[i] = bytesPerOp / (time / 1e9) / 1e6;
+		}
+		Arrays.sort(mbPerSecond);
+		Arrays.sort(allocated);
+		System.out.printf("%-22s %-16s %12.1f %16s%n", input, benchmark, mbPerSecond[MEASURED_ITERATIONS / 2],
+				sameThread ? Long.toString(allocated[MEASURED_ITERATIONS / 2]) : "n/a");
+	}
+	
+	// bytes allocated so far by this thread, or 0 when the JVM does not say
+	@SuppressWarnings("deprecation")
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+	
+	// discards everything written to it
+	static class NullOutputStream extends OutputStream {
+		public void write(int b) {}
+		public void write(byte[] b, int off, int len) {}
+	}
+}
@@ -0,0 +1,31 @@
+package huffPackage;
+import java.util.Iterator;
+
+/**
+ *  
+ * Interface that provides a continuos stream of bits (0 or 1)
+ * returned by next(), with the extra ability to look at several
+ * bits ahead without consuming them
+ * 
+ * This lets HuffmanTree decode a whole symbol with a table lookup
+ * instead of walking the tree one bit at a time
+ * 
+ * (used in Huffman decoding)
+ *
+ * @author Armand
+ */
+
+public interface BitFeedIn extends Iterator<Byte> {
+
+		/**
+		 * Returns the next n bits (0 <= n <= 32) as an int, first bit in the most significant
+		 * position, without consuming them. Positions past the end of the stream read as 0.
+		 */
+		public int peekBits(int n);
+		
+		/**
+		 * Consumes the next n bits
+		 */
+		public void skipBits(int n);
+
+}
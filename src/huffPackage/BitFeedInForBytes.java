@@ -0,0 +1,61 @@
+package huffPackage;
+import java.util.NoSuchElementException;
+
+/**
+ * This implementation of BitFeedIn reads the bits of a byte array,
+ * most significant bit of each byte first
+ *
+ * @author Armand
+ */
+public class BitFeedInForBytes implements BitFeedIn {
+	byte[] bytes;
+	long nextPos; // next bit to return, counted from the first bit of bytes[0]
+	long endPos;  // one past the last bit
+
+	/**
+	 * @param bytes the array holding the bits
+	 * @param offset the first byte of the bits
+	 * @param length the number of bytes of bits
+	 */
+	public BitFeedInForBytes(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		nextPos = 8L * offset;
+		endPos = 8L * (offset + length);
+	}
+
+	public boolean hasNext() {
+		return nextPos < endPos;
+	}
+
+	public Byte next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return (byte) readBits(1);
+	}
+
+	// the next n bits (0 to 32), positions past the last bit reading as 0
+	public int peekBits(int n) {
+		if (n == 0)
+			return 0;
+		long word = 0;
+		long byteIndex = nextPos >>> 3;
+		for (int i = 0; i < 5; i++) { // the n bits lie within 5 bytes
+			word <<= 8;
+			if (byteIndex + i < (endPos >>> 3))
+				word |= bytes[(int) (byteIndex + i)] & 0xFF;
+		}
+		int shift = 40 - (int) (nextPos & 7) - n;
+		return (int) ((word >>> shift) & ((1L << n) - 1));
+	}
+
+	public void skipBits(int n) {
+		nextPos = Math.min(nextPos + n, endPos);
+	}
+
+	int readBits(int n) {
+		int bits = peekBits(n);
+		skipBits(n);
+		return bits;
+	}
+
+}
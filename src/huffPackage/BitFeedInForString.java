@@ -1,5 +1,4 @@
 package huffPackage;
-import java.util.Iterator;
 
 /**
  *  
@@ -12,7 +11,7 @@ import java.util.Iterator;
  */
 
 
-public class BitFeedInForString implements Iterator<Byte>{
+public class BitFeedInForString implements BitFeedIn {
 		String bitSeq;
 		int nextPos=0;
 		
@@ -32,5 +31,18 @@ public class BitFeedInForString implements Iterator<Byte>{
 			}
 			else return -1;
 		}
+		
+		public int peekBits(int n) {
+			int bits = 0;
+			for (int i = nextPos; i < nextPos + n; i++) {
+				bits <<= 1;
+				if (i < bitSeq.length() && bitSeq.charAt(i) != '0') bits |= 1;
+			}
+			return bits;
+		}
+		
+		public void skipBits(int n) {
+			nextPos = Math.min(nextPos + n, bitSeq.length());
+		}
 	
 }
@@ -0,0 +1,409 @@
+package huffPackage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * Compresses files in independent blocks, encoded and decoded in parallel on a ForkJoinPool.
+ * 
+ * The input is cut into blocks of blockSize bytes. Each block is compressed on its own,
+ * with its own tree, exactly as HuffmanOutputStream would (CompressedFileHeader and payload),
+ * so blocks can be coded by different threads. Blocks are handled a window at a time
+ * (twice the parallelism of the pool) so memory use does not depend on the file size.
+ * 
+ * Layout (multi-byte numbers are big-endian):
+ *   4 bytes   magic "HUFB"
+ *   1 byte    format version
+ *   4 bytes   block size
+ *   the compressed blocks, one after the other
+ *   index:    4 bytes number of blocks, then per block
+ *             8 bytes offset in the file, 4 bytes compressed length, 4 bytes original length,
+ *             4 bytes CRC32C of the original bytes (not in version 1 files)
+ *   footer:   8 bytes offset of the index, 4 bytes magic "HUFB"
+ * 
+ * The index is at the end so blocks can be written as soon as they are ready; the
+ * decompressor reads the footer first and then fetches blocks by offset.
+ * 
+ * Every block decoded is checked against its CRC32C. verify() decodes the blocks in
+ * parallel only to check them, so a compressed file can be checked without its
+ * original and without writing anything.
+ * 
+ * With interleaving on, each block is instead coded by InterleavedHuffman, whose
+ * header carries FLAG_INTERLEAVED, so decompression works out the coding of each block.
+ * 
+ * A block whose coding is not estimated (from its LetterFrequencies, before coding it)
+ * to save at least 1/2^MIN_GAIN_SHIFT of it, header included, is stored instead: the
+ * start of a CompressedFileHeader with FLAG_STORED, then its bytes as they are. Blocks
+ * of incompressible data then cost neither encoding nor decoding. The estimate is a
+ * lower bound (the entropy), so a block coded into more bytes than storing it takes is
+ * stored after all, and the file is at most STORED_HEADER_SIZE bytes per block larger
+ * than its input (plus the index).
+ *
+ * @author Armand
+ */
+public class BlockCompressor {
+
+    static final byte[] MAGIC = { 'H', 'U', 'F', 'B' };
+    static final int VERSION = 2;
+    static final int FIRST_VERSION_WITH_CRC = 2;
+    static final long NO_CRC = -1; // CRC32C of a block of a version 1 file, which has none
+    static final int MIN_GAIN_SHIFT = 5; // blocks are coded only if that saves at least 1/32 of them
+    static final int FOOTER_SIZE = 12;
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private int blockSize;
+    private ForkJoinPool pool;
+    private boolean interleaved; // blocks are coded by InterleavedHuffman
+
+    public BlockCompressor() {
+        this(DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param blockSize the number of original bytes per block
+     * @param pool the pool blocks are coded on
+     */
+    public BlockCompressor(int blockSize, ForkJoinPool pool) {
+        this(blockSize, pool, false);
+    }
+
+    /**
+     * @param blockSize the number of original bytes per block
+     * @param pool the pool blocks are coded on
+     * @param interleaved whether blocks are coded in interleaved streams (see InterleavedHuffman),
+     *        which decode faster
+     */
+    public BlockCompressor(int blockSize, ForkJoinPool pool, boolean interleaved) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        this.blockSize = blockSize;
+        this.pool = pool;
+        this.interleaved = interleaved;
+    }
+
+    /**
+     * Compresses fileName into compressedFile
+     * 
+     * @throws IOException
+     */
+    public void compress(String fileName, String compressedFile) throws IOException {
+        int window = 2 * pool.getParallelism();
+        byte[][] blocks = new byte[window][blockSize];
+        int[] blockLengths = new int[window];
+        int[] checksums = new int[window];
+        List<long[]> index = new ArrayList<long[]>(); // offset, compressed length, original length, CRC32C
+
+        try (InputStream in = new FileInputStream(fileName);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compressedFile), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(blockSize);
+            long offset = out.size();
+
+            boolean more = true;
+            while (more) {
+                int n = 0;
+                while (n < window && more) {
+                    blockLengths[n] = readBlock(in, blocks[n]);
+                    more = blockLengths[n] == blockSize;
+                    if (blockLengths[n] > 0 || index.isEmpty() && n == 0)
+                        n++; // an empty file still gets one (empty) block
+                }
+                List<Future<byte[]>> coded = new ArrayList<Future<byte[]>>(n);
+                for (int i = 0; i < n; i++) {
+                    final byte[] block = blocks[i];
+                    final int length = blockLengths[i];
+                    final int slot = i;
+                    coded.add(pool.submit(() -> {
+                        checksums[slot] = crc32c(block, length);
+                        return codeBlock(block, length);
+                    }));
+                }
+                for (int i = 0; i < n; i++) {
+                    byte[] compressed = get(coded.get(i));
+                    out.write(compressed);
+                    index.add(new long[] { offset, compressed.length, blockLengths[i], checksums[i] });
+                    offset += compressed.length;
+                }
+            }
+
+            out.writeInt(index.size());
+            for (long[] entry : index) {
+                out.writeLong(entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeInt((int) entry[2]);
+                out.writeInt((int) entry[3]);
+            }
+            out.writeLong(offset);
+            out.write(MAGIC);
+        }
+    }
+
+    /**
+     * Restores the file compressed into compressedFile
+     * 
+     * @throws IOException if compressedFile is not a valid block-compressed file, or a
+     *         block does not match its CRC32C
+     */
+    public void decompress(String compressedFile, String fileName) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(compressedFile, "r");
+             OutputStream out = new FileOutputStream(fileName)) {
+            final FileChannel channel = file.getChannel();
+            long[][] index = readIndex(channel);
+
+            int window = 2 * pool.getParallelism();
+            for (int first = 0; first < index.length; first += window) {
+                int n = Math.min(window, index.length - first);
+                List<Future<byte[]>> decoded = new ArrayList<Future<byte[]>>(n);
+                for (int i = first; i < first + n; i++) {
+                    final int number = i;
+                    decoded.add(pool.submit(() -> decodeAndCheck(channel, index[number], number)));
+                }
+                for (int i = 0; i < n; i++)
+                    out.write(get(decoded.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Checks that every block of compressedFile decodes to as many bytes as its index
+     * entry says, with the CRC32C recorded when it was compressed. The blocks are
+     * decoded in parallel, a window at a time, and dropped once checked.
+     * Files of version 1 carry no CRC32C, so only their decoding is checked.
+     * 
+     * @throws IOException if compressedFile is not a valid block-compressed file, or a
+     *         block does not match its CRC32C (the first such block is named)
+     */
+    public void verify(String compressedFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(compressedFile, "r")) {
+            final FileChannel channel = file.getChannel();
+            long[][] index = readIndex(channel);
+
+            int window = 2 * pool.getParallelism();
+            for (int first = 0; first < index.length; first += window) {
+                int n = Math.min(window, index.length - first);
+                List<Future<byte[]>> checked = new ArrayList<Future<byte[]>>(n);
+                for (int i = first; i < first + n; i++) {
+                    final int number = i;
+                    checked.add(pool.submit(() -> {
+                        decodeAndCheck(channel, index[number], number);
+                        return null;
+                    }));
+                }
+                for (int i = 0; i < n; i++)
+                    get(checked.get(i));
+            }
+        }
+    }
+
+    /*
+     * Decodes block number of a file and checks it against the CRC32C of its index entry
+     */
+    private static byte[] decodeAndCheck(FileChannel channel, long[] entry, int number) throws IOException {
+        byte[] block = decodeBlock(readFully(channel, entry[0], (int) entry[1]), (int) entry[2]);
+        if (entry[3] != NO_CRC && crc32c(block, block.length) != (int) entry[3])
+            throw new IOException("Block " + number + " does not match its CRC32C");
+        return block;
+    }
+
+    /*
+     * Reads the footer and the index: per block its offset, compressed and original lengths
+     * and the CRC32C of its original bytes (NO_CRC in version 1 files)
+     */
+    static long[][] readIndex(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < MAGIC.length + 5 + FOOTER_SIZE)
+            throw new IOException("Not a block-compressed file (too short)");
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(readFully(channel, 0, MAGIC.length + 1)));
+        DataInputStream footer = new DataInputStream(new ByteArrayInputStream(readFully(channel, size - FOOTER_SIZE, FOOTER_SIZE)));
+        checkMagic(header);
+        int version = header.readUnsignedByte();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported block-compressed file version " + version);
+        boolean hasCrc = version >= FIRST_VERSION_WITH_CRC;
+        int entrySize = hasCrc ? 20 : 16;
+        long indexOffset = footer.readLong();
+        checkMagic(footer);
+        if (indexOffset < 0 || indexOffset > size - FOOTER_SIZE - 4)
+            throw new IOException("Corrupt block index offset " + indexOffset);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                readFully(channel, indexOffset, (int) (size - FOOTER_SIZE - indexOffset))));
+        int count = in.readInt();
+        if (count < 0 || count > (size - FOOTER_SIZE - indexOffset - 4) / entrySize)
+            throw new IOException("Corrupt block index");
+        long[][] index = new long[count][];
+        for (int i = 0; i < count; i++) {
+            long offset = in.readLong();
+            int compressedLength = in.readInt();
+            int originalLength = in.readInt();
+            long crc = hasCrc ? in.readInt() & 0xFFFFFFFFL : NO_CRC;
+            if (offset < 0 || compressedLength < 0 || originalLength < 0 || offset + compressedLength > indexOffset)
+                throw new IOException("Corrupt block index entry " + i);
+            index[i] = new long[] { offset, compressedLength, originalLength, crc };
+        }
+        return index;
+    }
+
+    private static void checkMagic(DataInputStream in) throws IOException {
+        for (int i = 0; i < MAGIC.length; i++)
+            if (in.readByte() != MAGIC[i])
+                throw new IOException("Not a block-compressed file (bad magic number)");
+    }
+
+    /*
+     * Codes one block as set up (plain or interleaved), or stores it if coding would not pay off
+     */
+    private byte[] codeBlock(byte[] block, int length) throws IOException {
+        LetterFrequencies lf = new LetterFrequencies(new ByteArrayInputStream(block, 0, length));
+        if (!worthCoding(lf, length))
+            return storeBlock(block, length);
+        byte[] coded = interleaved ? InterleavedHuffman.encode(block, 0, length, lf) : encodeBlock(block, length, lf);
+        if (coded.length > CompressedFileHeader.STORED_HEADER_SIZE + length) // the estimate was too low
+            return storeBlock(block, length);
+        return coded;
+    }
+
+    /*
+     * Whether coding a block of length bytes counted into lf is estimated to save at least
+     * 1/2^MIN_GAIN_SHIFT of it: its estimated payload plus a header of about 2 bytes per
+     * symbol, against the block stored
+     */
+    static boolean worthCoding(LetterFrequencies lf, int length) {
+        long header = CompressedFileHeader.MAGIC.length + 14 + 2L * (lf.getLetters().length + 1);
+        long coded = header + (lf.estimateCodedBits() + 7) / 8 + 2;
+        return coded <= length - (length >> MIN_GAIN_SHIFT);
+    }
+
+    /*
+     * A block left uncoded: the magic, version and flags of a CompressedFileHeader (with
+     * FLAG_STORED), then its bytes
+     */
+    static byte[] storeBlock(byte[] block, int length) {
+        byte[] stored = new byte[CompressedFileHeader.STORED_HEADER_SIZE + length];
+        System.arraycopy(CompressedFileHeader.MAGIC, 0, stored, 0, CompressedFileHeader.MAGIC.length);
+        stored[CompressedFileHeader.MAGIC.length] = CompressedFileHeader.VERSION;
+        stored[CompressedFileHeader.MAGIC.length + 1] = CompressedFileHeader.FLAG_BYTES | CompressedFileHeader.FLAG_STORED;
+        System.arraycopy(block, 0, stored, CompressedFileHeader.STORED_HEADER_SIZE, length);
+        return stored;
+    }
+
+    /*
+     * Compresses one block into the same form as HuffmanOutputStream
+     */
+    static byte[] encodeBlock(byte[] block, int length) throws IOException {
+        return encodeBlock(block, length, new LetterFrequencies(new ByteArrayInputStream(block, 0, length)));
+    }
+
+    private static byte[] encodeBlock(byte[] block, int length, LetterFrequencies lf) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+        CompressionMetrics.PhaseTimer timer;
+        try (OutputStream out = new HuffmanOutputStream(compressed, lf)) {
+            timer = CompressionMetrics.start(CompressionMetrics.Phase.ENCODE); // once the tree is built
+            out.write(block, 0, length);
+        }
+        if (timer != null)
+            timer.end(length, compressed.size(), length + 1);
+        return compressed.toByteArray();
+    }
+
+    /*
+     * Restores a block compressed by encodeBlock, InterleavedHuffman.encode or storeBlock
+     */
+    static byte[] decodeBlock(byte[] compressed, int originalLength) throws IOException {
+        int flags = compressed.length > CompressedFileHeader.MAGIC.length + 1 ? compressed[CompressedFileHeader.MAGIC.length + 1] : 0;
+        if ((flags & CompressedFileHeader.FLAG_STORED) != 0) {
+            for (int i = 0; i < CompressedFileHeader.MAGIC.length; i++)
+                if (compressed[i] != CompressedFileHeader.MAGIC[i])
+                    throw new IOException("Not a compressed block (bad magic number)");
+            if (compressed.length - CompressedFileHeader.STORED_HEADER_SIZE != originalLength)
+                throw new IOException("Stored block holds " + (compressed.length - CompressedFileHeader.STORED_HEADER_SIZE)
+                        + " bytes but its index entry says " + originalLength);
+            return Arrays.copyOfRange(compressed, CompressedFileHeader.STORED_HEADER_SIZE, compressed.length);
+        }
+        CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.DECODE);
+        if ((flags & CompressedFileHeader.FLAG_INTERLEAVED) != 0) {
+            byte[] block = InterleavedHuffman.decode(compressed);
+            if (block.length != originalLength)
+                throw new IOException("Block holds " + block.length + " bytes but its index entry says " + originalLength);
+            if (timer != null)
+                timer.end(compressed.length, originalLength, originalLength);
+            return block;
+        }
+        byte[] block = new byte[originalLength];
+        try (InputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed))) {
+            int n = 0;
+            while (n < originalLength) {
+                int read = in.read(block, n, originalLength - n);
+                if (read == -1)
+                    throw new EOFException("Block holds fewer bytes than its index entry says");
+                n += read;
+            }
+        }
+        if (timer != null)
+            timer.end(compressed.length, originalLength, originalLength + 1);
+        return block;
+    }
+
+    // CRC32C of the first length bytes of block
+    static int crc32c(byte[] block, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(block, 0, length);
+        return (int) crc.getValue();
+    }
+
+    // reads up to block.length bytes, fewer only at the end of the input
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int n = 0;
+        while (n < block.length) {
+            int read = in.read(block, n, block.length - n);
+            if (read == -1)
+                break;
+            n += read;
+        }
+        return n;
+    }
+
+    static byte[] readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1)
+                throw new EOFException("Block-compressed file is truncated");
+        }
+        return buffer.array();
+    }
+
+    static <T> T get(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while coding blocks", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof RuntimeException && cause.getCause() != null)
+                cause = cause.getCause(); // ForkJoinTask wraps the checked exceptions of a Callable
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Block coding failed", e.getCause());
+        }
+    }
+}
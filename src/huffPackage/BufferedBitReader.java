@@ -1,26 +1,37 @@
 package huffPackage;
 import java.io.*;
+import java.util.NoSuchElementException;
 
 /**
- * Reads bits from a file, one at a time. Assumes that the last byte of the file
+ * Reads bits from a file. Assumes that the last byte of the file
  * contains the number of valid bits in the previous byte.
  * 
+ * Bytes are read in large blocks into a byte array, and bits are handed out
+ * from a 64-bit word refilled from that array, so bits can be read one at a
+ * time (readBit) or several at a time (peekBits, skipBits, readBits), the
+ * latter being what HuffmanTree uses to decode with its tables.
+ * 
  * @author Scot Drysdale
  */
-public class BufferedBitReader {
+public class BufferedBitReader implements BitFeedIn {
 
     /*
-     * Note that we need to look ahead 3 bytes, because when the
-     * third byte is -1 (EOF indicator) then the second byte is a count
-     * of the number of valid bits in the first byte.
+     * Note that we must not turn the last 2 bytes of the input into bits
+     * before we know they are the last ones: the very last byte is a count
+     * of the number of valid bits in the byte before it.
      */
 
-    int current;   // Current byte being returned, bit by bit
-    int next;      // Next byte to be returned (could be a count)
-    int afterNext; // Byte two after the current byte
-    int bitMask;   // Shows which bit to return
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private long bitBuffer;        // Bits not yet returned, left-aligned (unused low bits are 0)
+    private int numBits;           // Number of valid bits in bitBuffer
+    private byte[] buffer;         // Bytes read from the input but not yet turned into bits
+    private int position;          // Next byte of buffer to use
+    private int limit;             // Number of bytes in buffer
+    private boolean endOfInput;    // The input has no more bytes to give
+    private boolean lastByteUsed;  // The final partial byte is already in bitBuffer
 
-    BufferedInputStream input;
+    InputStream input;
 
     /**
      * Constructor
@@ -29,18 +40,84 @@ public class BufferedBitReader {
      * @throws IOException
      */
     public BufferedBitReader(String pathName) throws IOException {
-        input = new BufferedInputStream(new FileInputStream(pathName));
+        this(new FileInputStream(pathName));
+    }
 
-        current = input.read();
-        if (current == -1)
+    /**
+     * Constructor reading the rest of a stream whose beginning (a header) may
+     * already have been consumed
+     * 
+     * @param in the stream holding the bits; closed by close()
+     * @throws IOException
+     */
+    public BufferedBitReader(InputStream in) throws IOException {
+        input = in;
+        buffer = new byte[BUFFER_SIZE];
+        position = limit = 0;
+        bitBuffer = 0;
+        numBits = 0;
+
+        readBytes();
+        if (limit < 2)
             throw new EOFException("File did not have two bytes");
+    }
 
-        next = input.read();
-        if (next == -1)
-            throw new EOFException("File did not have two bytes");
+    /*
+     * Reads from the input until buffer holds more than 2 unused bytes,
+     * or the input is exhausted
+     */
+    private void readBytes() throws IOException {
+        if (position > 0) { // move the unused bytes to the front
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (!endOfInput && limit - position <= 2) {
+            int n = input.read(buffer, limit, buffer.length - limit);
+            if (n == -1)
+                endOfInput = true;
+            else
+                limit += n;
+        }
+    }
 
-        afterNext = input.read();
-        bitMask = 128; // a 1 in leftmost bit position
+    /*
+     * Moves bytes into bitBuffer until it holds more than 56 bits
+     * or every bit of the input is in it. Only waits on the input for more
+     * bytes while bitBuffer holds fewer than needed bits, so that a stream
+     * still being written can be decoded as far as it has arrived.
+     */
+    private void refill(int needed) throws IOException {
+        while (numBits <= 56 && !lastByteUsed) {
+            if (limit - position <= 2 && !endOfInput) {
+                if (numBits >= needed)
+                    break;
+                readBytes();
+            }
+
+            if (limit - position > 2) {
+                bitBuffer |= (buffer[position++] & 0xFFL) << (56 - numBits);
+                numBits += 8;
+            }
+            else { // only the final partial byte and its count are left
+                int count = buffer[position + 1] & 0xFF;
+                if (count > 8)
+                    throw new IOException("Last byte of the file is not a bit count: " + count);
+                long partial = (buffer[position] & 0xFFL) >>> (8 - count) << (8 - count);
+                bitBuffer |= partial << (56 - numBits);
+                numBits += count;
+                position += 2;
+                lastByteUsed = true;
+            }
+        }
+    }
+
+    private void refillUnchecked(int needed) {
+        try {
+            refill(needed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -51,42 +128,75 @@ public class BufferedBitReader {
      * @throws IOException
      */
     public int readBit() throws IOException {
-        int returnBit; // Hold the bit to return
+        if (numBits == 0) {
+            refill(1);
+            if (numBits == 0)
+                return -1; // No more bits to return
+        }
+        int returnBit = (int) (bitBuffer >>> 63);
+        bitBuffer <<= 1;
+        numBits--;
+        return returnBit;
+    }
 
-        if (afterNext == -1) // Are we emptying the last byte?
+    /**
+     * Returns the next n bits (0 to 32), first bit in the most significant position,
+     * without consuming them. Positions past the last bit read as 0.
+     * I/O errors are reported as UncheckedIOException, as for the other BitFeedIn methods.
+     */
+    public int peekBits(int n) {
+        if (numBits < n)
+            refillUnchecked(n);
+        return n == 0 ? 0 : (int) (bitBuffer >>> (64 - n));
+    }
 
-            /*
-             *  When afterNext == -1, next is the count of bits remaining.
-             */
+    /**
+     * Consumes the next n bits (0 to 56); stops at the last bit if fewer are left
+     */
+    public void skipBits(int n) {
+        if (numBits < n) {
+            refillUnchecked(n);
+            if (numBits < n)
+                n = numBits;
+        }
+        bitBuffer <<= n;
+        numBits -= n;
+    }
 
-            if (next == 0) // No more bits in the final byte to return
-                return -1; // No more bits to return
-            else {
-                if ((bitMask & current) == 0)
-                    returnBit = 0;
-                else
-                    returnBit = 1;
-
-                next--;                 // One fewer bit to return
-                bitMask = bitMask >> 1; // Shift to mask next bit
-                return returnBit;
-            }
-        else {
-            if ((bitMask & current) == 0)
-                returnBit = 0;
-            else
-                returnBit = 1;
+    /**
+     * Reads the next n bits (0 to 32), first bit in the most significant position.
+     * Positions past the last bit read as 0.
+     */
+    public int readBits(int n) {
+        int bits = peekBits(n);
+        skipBits(n);
+        return bits;
+    }
 
-            bitMask = bitMask >> 1;  // Shift to mask next bit
+    /**
+     * Number of bits that can be read without reading from the input
+     * (the bytes held back at the end are not counted)
+     */
+    int bufferedBits() {
+        return numBits + 8 * Math.max(0, limit - position - 2);
+    }
 
-            if (bitMask == 0) {      // Finished returning this byte?
-                bitMask = 128;       // Leftmost bit next
-                current = next;
-                next = afterNext;
-                afterNext = input.read();
-            }
-            return returnBit;
-        }
+    /**
+     * Tells whether readBit still has bits to return
+     */
+    public boolean hasNext() {
+        if (numBits == 0)
+            refillUnchecked(1);
+        return numBits > 0;
+    }
+
+    /**
+     * Iterator view of readBit, so the reader can be handed to HuffmanTree.decodeCharacter
+     */
+    public Byte next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return (byte) readBits(1);
     }
 
     /**
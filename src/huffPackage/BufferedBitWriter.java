@@ -1,21 +1,26 @@
 package huffPackage;
-import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
- * Writes bits to a file. Accumulates bits until gets a byte, then writes it. On
- * closing writes an additional byte holding the number of valid bits in the
- * final byte written.
+ * Writes bits to a file. Accumulates bits in a 64-bit word, stores full words in a
+ * byte array and writes the array in large chunks. On closing writes the final
+ * partial byte and an additional byte holding the number of valid bits in it.
  * 
  * @author Scot Drysdale
  */
 public class BufferedBitWriter {
 
-    private byte currentByte;             // The byte that is being filled
-    private byte numBitsWritten;          // Number of bits written to the current byte
-    private BufferedOutputStream output;  // The output byte stream
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private long bitBuffer;               // Bits not yet stored, right-aligned
+    private int numBitsBuffered;          // Number of valid bits in bitBuffer (0 to 63)
+    private byte[] buffer;                // Bytes waiting to be written
+    private int bufferedBytes;            // Number of bytes used in buffer
+    private long flushedBytes;            // Number of bytes handed to output
+    private OutputStream output;          // The output byte stream
 
     /**
      * Constructor
@@ -24,9 +29,20 @@ public class BufferedBitWriter {
      * @throws FileNotFoundException
      */
     public BufferedBitWriter(String pathName) throws FileNotFoundException {
-        currentByte = 0;
-        numBitsWritten = 0;
-        output = new BufferedOutputStream(new FileOutputStream(pathName));
+        this(new FileOutputStream(pathName));
+    }
+
+    /**
+     * Constructor writing to a stream that may already hold other data (a header)
+     * 
+     * @param out the stream the bits are written to; closed by close()
+     */
+    public BufferedBitWriter(OutputStream out) {
+        bitBuffer = 0;
+        numBitsBuffered = 0;
+        buffer = new byte[BUFFER_SIZE];
+        bufferedBytes = 0;
+        output = out;
     }
 
     /**
@@ -39,13 +55,72 @@ public class BufferedBitWriter {
         if (bit < 0 || bit > 1)
             throw new IllegalArgumentException("Argument to writeBit: bit = " + bit);
 
-        numBitsWritten++;
-        currentByte |= bit << (8 - numBitsWritten);
-        if (numBitsWritten == 8) { // Have we got a full byte?
-            output.write(currentByte);
-            numBitsWritten = 0;
-            currentByte = 0;
+        writeBits(bit, 1);
+    }
+
+    /**
+     * writes the length low-order bits of code, most significant first, as a
+     * single operation (e.g. a whole Huffman codeword)
+     * 
+     * @param code the bits to be written, right-aligned; higher bits are ignored
+     * @param length the number of bits to write (0 to 64)
+     * @throws IOException
+     */
+    public void writeBits(long code, int length) throws IOException {
+        if (length < 0 || length > 64)
+            throw new IllegalArgumentException("Argument to writeBits: length = " + length);
+        int free = 64 - numBitsBuffered; // 1 to 64
+
+        if (length < free) {
+            bitBuffer = (bitBuffer << length) | (code & ((1L << length) - 1));
+            numBitsBuffered += length;
+        }
+        else {
+            int rest = length - free; // bits left over once the word is full (0 to 63)
+            long word = free == 64 ? code : (bitBuffer << free) | ((code >>> rest) & ((1L << free) - 1));
+            if (bufferedBytes + 8 > buffer.length)
+                flushBuffer();
+            for (int shift = 56; shift >= 0; shift -= 8)
+                buffer[bufferedBytes++] = (byte) (word >>> shift);
+            bitBuffer = code & ((1L << rest) - 1);
+            numBitsBuffered = rest;
+        }
+    }
+
+    /**
+     * The number of bits written so far, which is also the position (counted in
+     * bits from the start of this writer's output) of the next bit written
+     */
+    public long getBitsWritten() {
+        return 8 * (flushedBytes + bufferedBytes) + numBitsBuffered;
+    }
+
+    private void flushBuffer() throws IOException {
+        CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.BIT_WRITE);
+        output.write(buffer, 0, bufferedBytes);
+        flushedBytes += bufferedBytes;
+        if (timer != null)
+            timer.end(bufferedBytes, bufferedBytes, 0);
+        bufferedBytes = 0;
+    }
+
+    /**
+     * Writes every whole byte of bits so far to the output and flushes it, so
+     * that a reader of a live stream sees them. Up to 7 bits stay buffered
+     * until they make a byte or the stream is closed.
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (bufferedBytes + 8 > buffer.length)
+            flushBuffer();
+        while (numBitsBuffered >= 8) {
+            numBitsBuffered -= 8;
+            buffer[bufferedBytes++] = (byte) (bitBuffer >>> numBitsBuffered);
         }
+        bitBuffer &= (1L << numBitsBuffered) - 1;
+        flushBuffer();
+        output.flush();
     }
 
     /**
@@ -57,8 +132,15 @@ public class BufferedBitWriter {
      * @throws IOException
      */
     public void close() throws IOException {
-        output.write(currentByte);
-        output.write(numBitsWritten);
+        if (bufferedBytes + 10 > buffer.length)
+            flushBuffer();
+        while (numBitsBuffered >= 8) { // whole bytes still in bitBuffer
+            numBitsBuffered -= 8;
+            buffer[bufferedBytes++] = (byte) (bitBuffer >>> numBitsBuffered);
+        }
+        buffer[bufferedBytes++] = (byte) (bitBuffer << (8 - numBitsBuffered));
+        buffer[bufferedBytes++] = (byte) numBitsBuffered;
+        flushBuffer();
 
         output.close();
     }
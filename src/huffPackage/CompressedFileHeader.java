@@ -0,0 +1,235 @@
+package huffPackage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Header at the beginning of a compressed file. It makes the file self-describing:
+ * the decoder rebuilds the canonical Huffman tree from the code lengths stored here,
+ * with no need for the original text or its letter frequencies.
+ * 
+ * Layout (multi-byte numbers are big-endian):
+ *   4 bytes   magic "HUFF"
+ *   1 byte    format version
+ *   1 byte    flags (FLAG_BYTES when the symbols are bytes rather than characters,
+ *             EndOfText then being HuffmanTree.EndOfBytes; FLAG_ESCAPE as well when
+ *             the code was built from a sample and has the symbol HuffmanTree.EscapeBytes,
+ *             EndOfText then being EscapeBytes+1; FLAG_INTERLEAVED as well when the
+ *             payload is the streams of an InterleavedHuffman block; FLAG_STORED as
+ *             well for data left uncoded because coding would not pay off, whose
+ *             bytes follow the flags as they are, up to the end of the data, with
+ *             none of the fields below)
+ *   8 bytes   original length, in symbols (UNKNOWN_LENGTH with FLAG_ESCAPE, the data
+ *             then ending at EndOfText)
+ *   4 bytes   number of symbols in the code
+ *   then, per symbol in increasing order:
+ *     varint  distance from the previous symbol (from -1 for the first one)
+ *     1 byte  code length
+ * 
+ * The payload following the header is the canonical code of every character and
+ * then of EndOfText, as written by BufferedBitWriter. With FLAG_ESCAPE, a byte
+ * missing from the code is written as the code of EscapeBytes followed by its 8 bits.
+ *
+ * @author Armand
+ */
+public class CompressedFileHeader {
+
+    static final byte[] MAGIC = { 'H', 'U', 'F', 'F' };
+    static final int VERSION = 1;
+    static final int FLAG_BYTES = 1; // payload codes bytes (0..255) of a binary stream
+    static final int FLAG_ESCAPE = 2; // with FLAG_BYTES: the code has an escape symbol for bytes left out
+    static final int FLAG_INTERLEAVED = 4; // with FLAG_BYTES: the payload is split in streams (InterleavedHuffman)
+    static final int FLAG_STORED = 8; // with FLAG_BYTES: the bytes follow uncoded, right after the flags
+    static final int STORED_HEADER_SIZE = 6; // magic, version and flags of a stored block
+    static final long UNKNOWN_LENGTH = -1; // original length of data written before it was all seen
+
+    private int flags;            // format variants, see FLAG_BYTES
+    private long originalLength;  // number of symbols before compression
+    private int[] symbols;        // symbols of the code, increasing
+    private int[] lengths;        // code length of each symbol
+
+    /**
+     * Describes the code of a canonical tree (see HuffmanTree.canonical())
+     * 
+     * @param tree the canonical tree the payload is encoded with
+     * @param originalLength the number of characters encoded
+     */
+    public CompressedFileHeader(HuffmanTree tree, long originalLength) {
+        this(tree, originalLength, 0);
+    }
+
+    /**
+     * Describes the code of a canonical tree, for a given format variant
+     * 
+     * @param tree the canonical tree the payload is encoded with
+     * @param originalLength the number of symbols encoded
+     * @param flags the format variant, such as FLAG_BYTES
+     */
+    public CompressedFileHeader(HuffmanTree tree, long originalLength, int flags) {
+        int n = 0;
+        for (int i = 0; i < tree.leafWhereLetterIs.length; i++)
+            if (tree.leafWhereLetterIs[i] != null) n++;
+        symbols = new int[n];
+        lengths = new int[n];
+        n = 0;
+        for (int i = 0; i < tree.leafWhereLetterIs.length; i++) {
+            if (tree.leafWhereLetterIs[i] != null) {
+                symbols[n] = i;
+                lengths[n++] = tree.codeLength[i];
+            }
+        }
+        this.originalLength = originalLength;
+        this.flags = flags;
+    }
+
+    /**
+     * Describes data left uncoded: the bytes follow the header as they are
+     */
+    static CompressedFileHeader stored() {
+        return new CompressedFileHeader(FLAG_BYTES | FLAG_STORED, UNKNOWN_LENGTH, new int[0], new int[0]);
+    }
+
+    private CompressedFileHeader(int flags, long originalLength, int[] symbols, int[] lengths) {
+        this.flags = flags;
+        this.originalLength = originalLength;
+        this.symbols = symbols;
+        this.lengths = lengths;
+    }
+
+    public long getOriginalLength() {
+        return originalLength;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    // whether the data is left uncoded, and so has no code (nor known length)
+    boolean isStored() {
+        return (flags & FLAG_STORED) != 0;
+    }
+
+    // number of bytes write() writes
+    long size() {
+        if (isStored())
+            return STORED_HEADER_SIZE;
+        long size = MAGIC.length + 14;
+        int previous = -1;
+        for (int i = 0; i < symbols.length; i++) {
+            for (int distance = symbols[i] - previous; (distance & ~0x7F) != 0; distance >>>= 7)
+                size++;
+            size += 2;
+            previous = symbols[i];
+        }
+        return size;
+    }
+
+    /**
+     * Rebuilds the canonical tree the payload was encoded with
+     * 
+     * @throws IOException if the code lengths do not form a valid code
+     */
+    public HuffmanTree buildTree() throws IOException {
+        if (isStored())
+            throw new IOException("Stored data has no code (its bytes follow the header as they are)");
+        try {
+            return new HuffmanTree(symbols, lengths, alphabetSize(flags));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt compressed file header: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the header; the stream is left open for the payload
+     * 
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(flags);
+        if (isStored()) {
+            data.flush();
+            return;
+        }
+        data.writeLong(originalLength);
+        data.writeInt(symbols.length);
+        int previous = -1;
+        for (int i = 0; i < symbols.length; i++) {
+            writeVarInt(data, symbols[i] - previous);
+            data.writeByte(lengths[i]);
+            previous = symbols[i];
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a header, leaving the stream positioned at the start of the payload
+     * 
+     * @throws IOException if the stream does not start with a valid header
+     */
+    public static CompressedFileHeader read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++)
+            if (magic[i] != MAGIC[i])
+                throw new IOException("Not a compressed file (bad magic number)");
+        int version = data.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported compressed file version " + version);
+        int flags = data.readUnsignedByte();
+        if ((flags & FLAG_STORED) != 0) {
+            if (flags != (FLAG_BYTES | FLAG_STORED))
+                throw new IOException("Corrupt compressed file header");
+            return stored();
+        }
+        long originalLength = data.readLong();
+        int count = data.readInt();
+        int endOfText = alphabetSize(flags);
+        if (count < 1 || count > endOfText + 1
+                || originalLength < 0 && !(originalLength == UNKNOWN_LENGTH && (flags & FLAG_ESCAPE) != 0))
+            throw new IOException("Corrupt compressed file header");
+        int[] symbols = new int[count];
+        int[] lengths = new int[count];
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            symbols[i] = previous + readVarInt(data);
+            lengths[i] = data.readUnsignedByte();
+            if (symbols[i] <= previous || symbols[i] > endOfText)
+                throw new IOException("Corrupt compressed file header");
+            previous = symbols[i];
+        }
+        return new CompressedFileHeader(flags, originalLength, symbols, lengths);
+    }
+
+    // number of letters of the alphabet (and so the EndOfText symbol) of a format variant
+    static int alphabetSize(int flags) {
+        if ((flags & FLAG_BYTES) == 0)
+            return LetterFrequencies.NUM_CHARS;
+        return (flags & FLAG_ESCAPE) != 0 ? LetterFrequencies.NUM_BYTES + 1 : LetterFrequencies.NUM_BYTES;
+    }
+
+    // unsigned LEB128: 7 bits per byte, high bit set on all bytes but the last
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt compressed file header (varint too long)");
+    }
+}
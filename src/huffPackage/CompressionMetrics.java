@@ -0,0 +1,155 @@
+package huffPackage;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Instrumentation of the phases of a compression job: counting letters, building
+ * trees, encoding, writing bits and decoding. Each completed phase is reported to the
+ * registered Listeners as a PhaseMetrics (time, bytes in and out, symbols, bytes
+ * allocated by the thread) and emitted as a CompressionPhaseEvent to JDK Flight
+ * Recorder when that event is enabled in a recording.
+ * 
+ * Instrumented code calls start(phase) and, if it got a timer, timer.end(...).
+ * When no listener is registered and no recording asks for the event, start returns
+ * null after two cheap checks, so the disabled cost is negligible; phases are coarse
+ * (a whole count, tree build or file, a 64 KB buffer of bits), never per symbol.
+ * 
+ * Phases are disjoint: a phase started on a thread while another is running on it
+ * (the tree build and bit writes of an encode, the tree build of a decode) is left
+ * out of the time and allocation reported for the enclosing phase, so the metrics
+ * of all phases add up instead of counting the same work twice. A phase that fails
+ * is not ended, and so not reported.
+ * 
+ * Allocation is measured with the HotSpot per-thread counter, so it only covers work
+ * done on the thread that started the phase.
+ * 
+ * @author Armand
+ */
+public final class CompressionMetrics {
+
+	public enum Phase { COUNT, TREE_BUILD, ENCODE, BIT_WRITE, DECODE }
+
+	/**
+	 * Receives the metrics of every completed phase, on the thread that ran it
+	 */
+	public interface Listener {
+		void phaseCompleted(PhaseMetrics metrics);
+	}
+
+	/**
+	 * What was measured for one completed phase
+	 */
+	public static final class PhaseMetrics {
+		private final Phase phase;
+		private final long nanos, bytesIn, bytesOut, symbols, allocatedBytes;
+
+		PhaseMetrics(Phase phase, long nanos, long bytesIn, long bytesOut, long symbols, long allocatedBytes) {
+			this.phase = phase;
+			this.nanos = nanos;
+			this.bytesIn = bytesIn;
+			this.bytesOut = bytesOut;
+			this.symbols = symbols;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		public Phase getPhase() { return phase; }
+		public long getNanos() { return nanos; }
+		public long getBytesIn() { return bytesIn; }
+		public long getBytesOut() { return bytesOut; }
+		public long getSymbols() { return symbols; }
+		public long getAllocatedBytes() { return allocatedBytes; } // -1 if the JVM cannot tell
+
+		public double getSymbolsPerSecond() {
+			return nanos == 0 ? 0 : symbols * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return phase + ": " + nanos / 1000 + " us, " + bytesIn + " bytes in, " + bytesOut + " bytes out, "
+					+ symbols + " symbols, " + allocatedBytes + " bytes allocated";
+		}
+	}
+
+	private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private static final CompressionPhaseEvent eventProbe = new CompressionPhaseEvent(); // only asked isEnabled()
+	private static final ThreadLocal<PhaseTimer> running = new ThreadLocal<PhaseTimer>(); // innermost phase of each thread
+
+	private CompressionMetrics() {}
+
+	public static void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public static void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Starts timing a phase
+	 * 
+	 * @return the timer to end when the phase is done, or null when nothing is listening
+	 */
+	static PhaseTimer start(Phase phase) {
+		if (listeners.isEmpty() && !eventProbe.isEnabled())
+			return null;
+		return new PhaseTimer(phase);
+	}
+
+	/**
+	 * Times one phase from its creation to end(...), less the phases nested in it
+	 */
+	static final class PhaseTimer {
+		private final Phase phase;
+		private final PhaseTimer enclosing;  // phase running on the thread when this one started, or null
+		private final long startNanos;
+		private final long startAllocated;
+		private final CompressionPhaseEvent event;
+		private long nestedNanos;            // spent in the phases nested in this one
+		private long nestedAllocated;        // allocated by them
+
+		private PhaseTimer(Phase phase) {
+			this.phase = phase;
+			this.enclosing = running.get();
+			running.set(this);
+			this.event = new CompressionPhaseEvent();
+			this.event.begin();
+			this.startAllocated = allocatedBytes();
+			this.startNanos = System.nanoTime();
+		}
+
+		void end(long bytesIn, long bytesOut, long symbols) {
+			long totalNanos = System.nanoTime() - startNanos;
+			long totalAllocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+			running.set(enclosing);
+			if (enclosing != null) {
+				enclosing.nestedNanos += totalNanos;
+				enclosing.nestedAllocated += totalAllocated;
+			}
+			long nanos = totalNanos - nestedNanos;
+			long allocated = totalAllocated < 0 ? -1 : totalAllocated - nestedAllocated;
+			event.end();
+			if (event.shouldCommit()) {
+				event.phase = phase.name();
+				event.exclusiveNanos = nanos;
+				event.bytesIn = bytesIn;
+				event.bytesOut = bytesOut;
+				event.symbols = symbols;
+				event.allocatedBytes = allocated;
+				event.commit();
+			}
+			if (!listeners.isEmpty()) {
+				PhaseMetrics metrics = new PhaseMetrics(phase, nanos, bytesIn, bytesOut, symbols, allocated);
+				for (Listener listener : listeners)
+					listener.phaseCompleted(metrics);
+			}
+		}
+	}
+
+	// bytes allocated so far by this thread, or -1 when the JVM does not say
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+}
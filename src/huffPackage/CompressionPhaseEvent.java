@@ -0,0 +1,44 @@
+package huffPackage;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event for one phase of a compression job, emitted by
+ * CompressionMetrics. Like other custom events it is recorded by any recording
+ * (e.g. -XX:StartFlightRecording) unless the recording settings disable it.
+ * 
+ * @author Armand
+ */
+@Name("huffPackage.CompressionPhase")
+@Label("Compression Phase")
+@Category({ "Huffman" })
+@Description("Time, bytes and symbols of one phase: count, tree build, encode, bit write or decode")
+class CompressionPhaseEvent extends jdk.jfr.Event {
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Bytes In")
+	@DataAmount
+	long bytesIn;
+
+	@Label("Bytes Out")
+	@DataAmount
+	long bytesOut;
+
+	@Label("Symbols")
+	long symbols;
+
+	@Label("Allocated")
+	@DataAmount
+	long allocatedBytes;
+
+	@Label("Exclusive Time")
+	@Description("Duration less the phases nested in this one")
+	@Timespan
+	long exclusiveNanos;
+}
@@ -6,7 +6,8 @@ import java.io.*;
 /**
  * FileManipulation Class encompasses all the file reading/writing the Huffman project does.
  * It can read and write strings, and currently can also convert strings into bits and write them in a textfile.
- * That is how the textfile is compressed. Eventually, it will also be able to read a compressed file 
+ * That is how the textfile is compressed. Compress and Decompress produce and read back
+ * self-describing compressed files (see CompressedFileHeader).
  * @author Armand
  *
  */
@@ -94,16 +95,345 @@ public class FileManipulation {
 		try{
 			BufferedBitWriter bbw = new BufferedBitWriter(file);
 			
+			long bits = 0;
+			int numBits = 0;
 			for(int i = 0; i < s.length(); i++){
 				char c = s.charAt(i);
-				bbw.writeBit(Character.getNumericValue(c));
+				if (c != '0' && c != '1')
+					throw new IllegalArgumentException("Argument to WriteToBits: character '" + c + "' at " + i + " is not a bit");
+				bits = (bits << 1) | (c - '0');
+				if(++numBits == 64){ // hand whole words to the writer
+					bbw.writeBits(bits, 64);
+					bits = 0;
+					numBits = 0;
+				}
 			}
+			bbw.writeBits(bits, numBits);
 			bbw.close();
 		}catch(IOException ex){
 			ex.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Compresses a textfile into a self-describing compressed file: a CompressedFileHeader with the
+	 * canonical Huffman code lengths, followed by the bits of every character and of EndOfText
+	 * @param fileName, the textfile to compress
+	 * @param compressedFile, the file the header and bits get written into
+	 */
+	public void Compress(String fileName, String compressedFile){
+		Compress(fileName, compressedFile, null, 0);
+	}
+	
+	/**
+	 * Compresses a textfile as Compress(fileName, compressedFile) does, and also writes a
+	 * SyncPointIndex of where every syncInterval-th character starts, for DecompressRange
+	 * @param fileName, the textfile to compress
+	 * @param compressedFile, the file the header and bits get written into
+	 * @param indexFile, the file the sync points get written into, or null for none
+	 * @param syncInterval, the number of characters between sync points
+	 */
+	public void Compress(String fileName, String compressedFile, String indexFile, int syncInterval){
+		String s = Read(fileName);
+		HuffmanTree tree = new HuffmanTree(new LetterFrequencies(s)).canonical();
+		
+		try{
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			new CompressedFileHeader(tree, s.length()).write(header);
+			SyncPointIndex index = indexFile == null ? null : new SyncPointIndex(syncInterval, s.length(), header.size());
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(compressedFile));
+			header.writeTo(out);
+			BufferedBitWriter bbw = new BufferedBitWriter(out);
+			CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.ENCODE);
+			
+			for(int i = 0; i < s.length(); i++){
+				if (index != null && i % syncInterval == 0)
+					index.add(bbw.getBitsWritten());
+				writeCode(bbw, tree, s.charAt(i));
+			}
+			writeCode(bbw, tree, HuffmanTree.EndOfText);
+			bbw.close();
+			if (timer != null) timer.end(2L * s.length(), new File(compressedFile).length(), s.length() + 1);
+			if (index != null)
+				index.write(indexFile);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+	
+	private void writeCode(BufferedBitWriter bbw, HuffmanTree tree, int c) throws IOException{
+		bbw.writeBits(tree.getCode(c), tree.getCodeLength(c));
+	}
+	
+	/**
+	 * Decompresses a file written by Compress using nothing but the file itself:
+	 * the tree is rebuilt from the header and the decoded text is written into a textfile
+	 * @param compressedFile, the compressed file
+	 * @param fileName, the textfile the decoded text gets written into
+	 * @return the decoded text
+	 */
+	public String Decompress(String compressedFile, String fileName){
+		try{
+			InputStream in = new BufferedInputStream(new FileInputStream(compressedFile));
+			CompressedFileHeader header = CompressedFileHeader.read(in);
+			HuffmanTree tree = header.buildTree();
+			BufferedBitReader bbr = new BufferedBitReader(in);
+			
+			long length = header.getOriginalLength();
+			if (length > Integer.MAX_VALUE - 8)
+				throw new IOException("Compressed text too long to decode into a String");
+			CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.DECODE);
+			StringBuilder sb = new StringBuilder((int) length);
+			for(long i = 0; i < length; i++){
+				int symbol = tree.decodeCharacter(bbr);
+				if (symbol > '\uffff')
+					throw new IOException("Compressed file '" + compressedFile + "' is truncated or corrupt");
+				sb.append((char) symbol);
+			}
+			if (tree.decodeCharacter(bbr) != HuffmanTree.EndOfText)
+				throw new IOException("Compressed file '" + compressedFile + "' is missing EndOfText");
+			bbr.close();
+			if (timer != null) timer.end(new File(compressedFile).length(), 2 * length, length + 1);
+			
+			String text = sb.toString();
+			Write(text, fileName);
+			return text;
+		}
+		catch(FileNotFoundException ex){
+			ex.printStackTrace();
+		}
+		catch(IOException ex){
+			ex.printStackTrace();
+		}
+		catch(UncheckedIOException ex){
+			ex.printStackTrace();
+		}
+		return "0";
+	}
+	
+	/**
+	 * Decodes the characters from position from (included) to position to (excluded) of a
+	 * file written by Compress with a SyncPointIndex: decoding starts at the last sync point
+	 * before from, so the time taken depends on the length of the range, not of the file
+	 * @param compressedFile, the compressed file
+	 * @param indexFile, the sync points written along with it
+	 * @param from, the position of the first character wanted
+	 * @param to, the position after the last character wanted
+	 * @return the characters, or null if they cannot be decoded
+	 */
+	public String DecompressRange(String compressedFile, String indexFile, long from, long to){
+		try(FileInputStream file = new FileInputStream(compressedFile)){
+			SyncPointIndex index = SyncPointIndex.read(indexFile);
+			InputStream in = new BufferedInputStream(file);
+			CompressedFileHeader header = CompressedFileHeader.read(in);
+			if (header.getOriginalLength() != index.getTextLength())
+				throw new IOException("Sync point index '" + indexFile + "' is not for '" + compressedFile + "'");
+			if (from < 0 || to < from || to > index.getTextLength() || to - from > Integer.MAX_VALUE - 8)
+				throw new IndexOutOfBoundsException("Range " + from + ".." + to + " of " + index.getTextLength() + " characters");
+			if (from == to)
+				return "";
+			HuffmanTree tree = header.buildTree();
+			
+			CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.DECODE);
+			long bitOffset = index.syncBitOffset(from);
+			file.getChannel().position(index.getPayloadOffset() + bitOffset / 8);
+			BufferedBitReader bbr = new BufferedBitReader(file);
+			bbr.skipBits((int) (bitOffset % 8));
+			StringBuilder sb = new StringBuilder((int) (to - from));
+			for(long i = index.syncCharacter(from); i < to; i++){
+				int symbol = tree.decodeCharacter(bbr);
+				if (symbol > '\uffff')
+					throw new IOException("Compressed file '" + compressedFile + "' is truncated or corrupt");
+				if (i >= from)
+					sb.append((char) symbol);
+			}
+			if (timer != null) timer.end(0, 2 * (to - from), to - index.syncCharacter(from));
+			return sb.toString();
+		}
+		catch(IOException ex){
+			ex.printStackTrace();
+		}
+		catch(UncheckedIOException ex){
+			ex.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Compresses any file, byte for byte, with HuffmanOutputStream. The file is read twice
+	 * (once to count the bytes and once to encode them) through fixed-size buffers, so
+	 * memory use does not depend on the size of the file
+	 * @param fileName, the file to compress
+	 * @param compressedFile, the file the compressed data gets written into
+	 */
+	public void CompressFile(String fileName, String compressedFile){
+		try{
+			LetterFrequencies lf;
+			try(InputStream in = new FileInputStream(fileName)){
+				lf = new LetterFrequencies(in);
+			}
+			CompressionMetrics.PhaseTimer timer;
+			try(InputStream in = new FileInputStream(fileName);
+				OutputStream out = new HuffmanOutputStream(new FileOutputStream(compressedFile), lf)){
+				timer = CompressionMetrics.start(CompressionMetrics.Phase.ENCODE); // once the tree is built
+				Copy(in, out);
+			}
+			if (timer != null) timer.end(lf.getTotal(), new File(compressedFile).length(), lf.getTotal() + 1);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Compresses any file, byte for byte, with a SampledHuffmanOutputStream: the code is
+	 * built from the first sampleSize bytes, so the file is read only once
+	 * @param fileName, the file to compress
+	 * @param compressedFile, the file the compressed data gets written into
+	 * @param sampleSize, the number of bytes the code is built from
+	 */
+	public void CompressFileSampled(String fileName, String compressedFile, int sampleSize){
+		CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.ENCODE);
+		try{
+			long length;
+			try(InputStream in = new FileInputStream(fileName);
+				OutputStream out = new SampledHuffmanOutputStream(new FileOutputStream(compressedFile), sampleSize, 64)){
+				length = Copy(in, out);
+			}
+			if (timer != null) timer.end(length, new File(compressedFile).length(), length + 1);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Restores a file compressed by CompressFile or CompressFileSampled with HuffmanInputStream, through fixed-size buffers
+	 * @param compressedFile, the compressed file
+	 * @param fileName, the file the original bytes get written into
+	 */
+	public void DecompressFile(String compressedFile, String fileName){
+		CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.DECODE);
+		try{
+			long length;
+			try(InputStream in = new HuffmanInputStream(new FileInputStream(compressedFile));
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName))){
+				length = Copy(in, out);
+			}
+			if (timer != null) timer.end(new File(compressedFile).length(), length, length + 1);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Compresses any file in independent blocks coded in parallel by a BlockCompressor,
+	 * using all the cores of the machine
+	 * @param fileName, the file to compress
+	 * @param compressedFile, the file the compressed blocks and their index get written into
+	 */
+	public void CompressFileInBlocks(String fileName, String compressedFile){
+		try{
+			new BlockCompressor().compress(fileName, compressedFile);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Restores a file compressed by CompressFileInBlocks, decoding its blocks in parallel
+	 * @param compressedFile, the compressed file
+	 * @param fileName, the file the original bytes get written into
+	 */
+	public void DecompressFileInBlocks(String compressedFile, String fileName){
+		try{
+			new BlockCompressor().decompress(compressedFile, fileName);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Checks a file compressed by CompressFileInBlocks against the CRC32C of each block,
+	 * decoding its blocks in parallel without writing them anywhere
+	 * @param compressedFile, the compressed file
+	 * @return true if every block decodes to its original bytes, false otherwise
+	 */
+	public boolean VerifyFileInBlocks(String compressedFile){
+		try{
+			new BlockCompressor().verify(compressedFile);
+			return true;
+		}catch(IOException ex){
+			System.err.println(compressedFile + ": " + ex.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Compresses any file into the format of CompressFile with a MappedFileCompressor, which
+	 * reads the file memory-mapped and writes through a direct buffer
+	 * @param fileName, the file to compress
+	 * @param compressedFile, the file the compressed data gets written into
+	 */
+	public void CompressFileMapped(String fileName, String compressedFile){
+		try{
+			new MappedFileCompressor().compress(fileName, compressedFile);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Restores a file compressed by CompressFile or CompressFileMapped with a MappedFileCompressor
+	 * @param compressedFile, the compressed file
+	 * @param fileName, the file the original bytes get written into
+	 */
+	public void DecompressFileMapped(String compressedFile, String fileName){
+		try{
+			new MappedFileCompressor().decompress(compressedFile, fileName);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Compresses any file into the format of CompressFile with a PipelinedCompressor, whose
+	 * reader, encoder and writer threads work at the same time
+	 * @param fileName, the file to compress
+	 * @param compressedFile, the file the compressed data gets written into
+	 */
+	public void CompressFilePipelined(String fileName, String compressedFile){
+		try{
+			new PipelinedCompressor().compress(fileName, compressedFile);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Restores a file compressed by CompressFile or CompressFilePipelined with a PipelinedCompressor
+	 * @param compressedFile, the compressed file
+	 * @param fileName, the file the original bytes get written into
+	 */
+	public void DecompressFilePipelined(String compressedFile, String fileName){
+		try{
+			new PipelinedCompressor().decompress(compressedFile, fileName);
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+	}
+
+	// copies in to out, returning the number of bytes copied
+	private long Copy(InputStream in, OutputStream out) throws IOException{
+		byte[] buffer = new byte[8192];
+		long copied = 0;
+		int n = in.read(buffer);
+		while(n != -1){
+			out.write(buffer, 0, n);
+			copied += n;
+			n = in.read(buffer);
+		}
+		return copied;
+	}
+	
 	/**
 	 * Simple write method that take a string and writes it onto a file
 	 * @param s, a string value
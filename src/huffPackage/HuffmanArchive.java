@@ -0,0 +1,432 @@
+package huffPackage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * An archive of many files, each Huffman-compressed on its own, any of which can be
+ * extracted without reading the others.
+ *
+ * The codes of each entry are written one after the other, as BufferedBitWriter
+ * leaves them; the header of every entry (its CompressedFileHeader, from which the
+ * tree is rebuilt) is kept in the central directory at the end of the archive,
+ * along with its name, offset, sizes and the CRC32C of its original bytes. Opening an
+ * archive reads the footer and the directory; extracting an entry then reads only its
+ * own codes, and checks them against the CRC32C. verify() checks every entry that way,
+ * in parallel, without writing anything.
+ *
+ * Layout (multi-byte numbers are big-endian):
+ *   4 bytes   magic "HUFA"
+ *   1 byte    format version
+ *   the codes of each entry, one after the other
+ *   directory: 4 bytes number of entries, then per entry
+ *             the name (DataOutputStream.writeUTF), 8 bytes offset in the file,
+ *             8 bytes compressed length, 4 bytes CRC32C of the original bytes (not in
+ *             version 1 archives), then its CompressedFileHeader (FLAG_BYTES), whose
+ *             original length is the size of the entry; for an entry stored uncoded
+ *             (FLAG_STORED) the codes are its bytes as they are
+ *   footer:   8 bytes offset of the directory, 4 bytes magic "HUFA"
+ *
+ * Usage: java huffPackage.HuffmanArchive create archive file ...
+ *        java huffPackage.HuffmanArchive list archive
+ *        java huffPackage.HuffmanArchive extract archive name [file]
+ *        java huffPackage.HuffmanArchive verify archive
+ *
+ * @author Armand
+ */
+public class HuffmanArchive implements Closeable {
+
+	static final byte[] MAGIC = { 'H', 'U', 'F', 'A' };
+	static final int VERSION = 2;
+	static final int FIRST_VERSION_WITH_CRC = 2;
+	static final long NO_CRC = -1; // CRC32C of an entry of a version 1 archive, which has none
+	static final int FOOTER_SIZE = 12;
+
+	/**
+	 * What the central directory holds about one entry
+	 */
+	public static class ArchiveEntry {
+		private String name;
+		private long offset;           // position of the codes in the archive
+		private long compressedLength; // number of bytes of codes
+		private long crc;              // CRC32C of the original bytes, or NO_CRC
+		private CompressedFileHeader header;
+
+		ArchiveEntry(String name, long offset, long compressedLength, long crc, CompressedFileHeader header) {
+			this.name = name;
+			this.offset = offset;
+			this.compressedLength = compressedLength;
+			this.crc = crc;
+			this.header = header;
+		}
+
+		public String getName() { return name; }
+
+		public long getOffset() { return offset; }
+
+		public long getCompressedLength() { return compressedLength; }
+
+		public long getOriginalLength() { return header.isStored() ? compressedLength : header.getOriginalLength(); }
+
+		// CRC32C of the original bytes, or NO_CRC for an entry of a version 1 archive
+		public long getCrc32c() { return crc; }
+	}
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private Map<String, ArchiveEntry> entries; // by name, in the order of the directory
+
+	/**
+	 * Opens an archive, reading its directory
+	 *
+	 * @throws IOException if the file is not a valid archive
+	 */
+	public HuffmanArchive(String archiveFile) throws IOException {
+		file = new RandomAccessFile(archiveFile, "r");
+		channel = file.getChannel();
+		try {
+			entries = readDirectory(channel);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Compresses files into a new archive, each entry being named after its file
+	 * (without the directories)
+	 *
+	 * @throws IOException if a file cannot be read, or two have the same name
+	 */
+	public static void create(String archiveFile, List<String> fileNames) throws IOException {
+		List<ArchiveEntry> directory = new ArrayList<ArchiveEntry>();
+		List<String> names = new ArrayList<String>();
+		CountingOutputStream position = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile), 1 << 16));
+		try (DataOutputStream out = new DataOutputStream(position)) {
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			for (String fileName : fileNames) {
+				String name = Paths.get(fileName).getFileName().toString();
+				if (names.contains(name))
+					throw new IOException("Two files are named " + name);
+				names.add(name);
+
+				LetterFrequencies lf;
+				try (InputStream in = new FileInputStream(fileName)) {
+					lf = new LetterFrequencies(in);
+				}
+				HuffmanTree tree = new HuffmanTree(lf, 64).canonical();
+				CompressedFileHeader header = new CompressedFileHeader(tree, lf.getTotal(), CompressedFileHeader.FLAG_BYTES);
+				if (!HuffmanOutputStream.worthCoding(tree, lf, header))
+					header = CompressedFileHeader.stored();
+				long offset = position.count;
+				CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.ENCODE);
+				CRC32C crc = new CRC32C();
+				try (InputStream in = new FileInputStream(fileName);
+					 OutputStream codes = header.isStored() ? new HuffmanOutputStream(new EntryOutputStream(out), lf.getTotal())
+							 : new HuffmanOutputStream(new EntryOutputStream(out), tree, lf.getTotal())) {
+					byte[] buffer = new byte[8192];
+					int n = in.read(buffer);
+					while (n != -1) {
+						codes.write(buffer, 0, n);
+						crc.update(buffer, 0, n);
+						n = in.read(buffer);
+					}
+				}
+				if (timer != null)
+					timer.end(lf.getTotal(), position.count - offset, lf.getTotal() + 1);
+				directory.add(new ArchiveEntry(name, offset, position.count - offset, crc.getValue(), header));
+			}
+
+			long directoryOffset = position.count;
+			out.writeInt(directory.size());
+			for (ArchiveEntry entry : directory) {
+				out.writeUTF(entry.name);
+				out.writeLong(entry.offset);
+				out.writeLong(entry.compressedLength);
+				out.writeInt((int) entry.crc);
+				entry.header.write(out);
+			}
+			out.writeLong(directoryOffset);
+			out.write(MAGIC);
+		}
+	}
+
+	/**
+	 * The entries of the archive, in the order they were added
+	 */
+	public List<ArchiveEntry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<ArchiveEntry>(entries.values()));
+	}
+
+	/**
+	 * The entry with a name, or null if there is none
+	 */
+	public ArchiveEntry getEntry(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Opens a stream decompressing one entry. Several entries can be read at the same time.
+	 *
+	 * @throws IOException if there is no such entry, or its header is corrupt
+	 */
+	public InputStream open(String name) throws IOException {
+		ArchiveEntry entry = entries.get(name);
+		if (entry == null)
+			throw new IOException("No entry named " + name);
+		return new HuffmanInputStream(new RegionInputStream(channel, entry.offset, entry.compressedLength), entry.header);
+	}
+
+	/**
+	 * Decompresses one entry into a file
+	 *
+	 * @throws IOException if the entry is corrupt or does not match its CRC32C (the file
+	 *         is then written all the same)
+	 */
+	public void extract(String name, String fileName) throws IOException {
+		try (OutputStream out = new FileOutputStream(fileName)) {
+			decodeAndCheck(name, out);
+		}
+	}
+
+	/**
+	 * Checks that every entry decodes to as many bytes as the directory says, with the
+	 * CRC32C recorded when it was added. Entries are decoded in parallel, streaming
+	 * through a small buffer, so nothing is written and no entry is held in memory.
+	 * Entries of version 1 archives carry no CRC32C, so only their decoding is checked.
+	 *
+	 * @throws IOException if an entry is corrupt or does not match its CRC32C (the first
+	 *         such entry is named)
+	 */
+	public void verify() throws IOException {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		List<Future<Long>> checked = new ArrayList<Future<Long>>();
+		for (String name : entries.keySet())
+			checked.add(pool.submit(() -> decodeAndCheck(name, null)));
+		try {
+			for (Future<Long> entry : checked)
+				BlockCompressor.get(entry);
+		} finally {
+			for (Future<Long> entry : checked)
+				entry.cancel(false);
+		}
+	}
+
+	/*
+	 * Decodes an entry into out (or nowhere if out is null), checking its length and CRC32C;
+	 * returns the length
+	 */
+	private long decodeAndCheck(String name, OutputStream out) throws IOException {
+		ArchiveEntry entry = entries.get(name);
+		CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.DECODE);
+		CRC32C crc = new CRC32C();
+		long length = 0;
+		try (InputStream in = open(name)) {
+			byte[] buffer = new byte[1 << 16];
+			int n = in.read(buffer);
+			while (n != -1) {
+				if (out != null)
+					out.write(buffer, 0, n);
+				crc.update(buffer, 0, n);
+				length += n;
+				n = in.read(buffer);
+			}
+		}
+		if (timer != null)
+			timer.end(entry.compressedLength, length, length + 1);
+		if (length != entry.getOriginalLength())
+			throw new IOException("Entry " + name + " holds " + length + " bytes but the directory says " + entry.getOriginalLength());
+		if (entry.crc != NO_CRC && crc.getValue() != entry.crc)
+			throw new IOException("Entry " + name + " does not match its CRC32C");
+		return length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/*
+	 * Reads the footer and the central directory
+	 */
+	private static Map<String, ArchiveEntry> readDirectory(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size < MAGIC.length + 1 + 4 + FOOTER_SIZE)
+			throw new IOException("Not a Huffman archive (too short)");
+		DataInputStream header = new DataInputStream(new ByteArrayInputStream(BlockCompressor.readFully(channel, 0, MAGIC.length + 1)));
+		DataInputStream footer = new DataInputStream(new ByteArrayInputStream(BlockCompressor.readFully(channel, size - FOOTER_SIZE, FOOTER_SIZE)));
+		checkMagic(header);
+		int version = header.readUnsignedByte();
+		if (version < 1 || version > VERSION)
+			throw new IOException("Unsupported Huffman archive version " + version);
+		long directoryOffset = footer.readLong();
+		checkMagic(footer);
+		if (directoryOffset < MAGIC.length + 1 || directoryOffset > size - FOOTER_SIZE - 4)
+			throw new IOException("Corrupt archive directory offset " + directoryOffset);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				BlockCompressor.readFully(channel, directoryOffset, (int) (size - FOOTER_SIZE - directoryOffset))));
+		int count = in.readInt();
+		if (count < 0)
+			throw new IOException("Corrupt archive directory");
+		Map<String, ArchiveEntry> entries = new LinkedHashMap<String, ArchiveEntry>();
+		for (int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			long offset = in.readLong();
+			long compressedLength = in.readLong();
+			long crc = version >= FIRST_VERSION_WITH_CRC ? in.readInt() & 0xFFFFFFFFL : NO_CRC;
+			CompressedFileHeader entryHeader = CompressedFileHeader.read(in);
+			if (offset < MAGIC.length + 1 || compressedLength < (entryHeader.isStored() ? 0 : 2)
+					|| offset + compressedLength > directoryOffset
+					|| entries.containsKey(name))
+				throw new IOException("Corrupt archive directory entry " + i);
+			entries.put(name, new ArchiveEntry(name, offset, compressedLength, crc, entryHeader));
+		}
+		return entries;
+	}
+
+	private static void checkMagic(DataInputStream in) throws IOException {
+		for (int i = 0; i < MAGIC.length; i++)
+			if (in.readByte() != MAGIC[i])
+				throw new IOException("Not a Huffman archive (bad magic number)");
+	}
+
+	/*
+	 * Passes the codes of an entry on to the archive, which stays open when the
+	 * HuffmanOutputStream writing them is closed
+	 */
+	private static class EntryOutputStream extends OutputStream {
+		private OutputStream out;
+
+		EntryOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.flush();
+		}
+	}
+
+	/*
+	 * Counts the bytes written through it, which DataOutputStream.size() stops doing
+	 * at Integer.MAX_VALUE
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count; // bytes written so far
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/*
+	 * Reads a region of the archive with positional reads, which do not move the
+	 * channel position, so several regions can be read at the same time
+	 */
+	private static class RegionInputStream extends InputStream {
+		private FileChannel channel;
+		private long position; // next byte to read
+		private long end;      // one past the last byte of the region
+
+		RegionInputStream(FileChannel channel, long position, long length) {
+			this.channel = channel;
+			this.position = position;
+			this.end = position + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (position == end)
+				return -1;
+			int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+			if (n == -1)
+				throw new IOException("Huffman archive is truncated");
+			position += n;
+			return n;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 3 && args[0].equals("create")) {
+			List<String> files = new ArrayList<String>();
+			for (int i = 2; i < args.length; i++)
+				files.add(args[i]);
+			create(args[1], files);
+		}
+		else if (args.length == 2 && args[0].equals("list")) {
+			try (HuffmanArchive archive = new HuffmanArchive(args[1])) {
+				for (ArchiveEntry entry : archive.getEntries())
+					System.out.println(entry.getName() + "\t" + entry.getOriginalLength() + "\t" + entry.getCompressedLength());
+			}
+		}
+		else if ((args.length == 3 || args.length == 4) && args[0].equals("extract")) {
+			try (HuffmanArchive archive = new HuffmanArchive(args[1])) {
+				archive.extract(args[2], args.length == 4 ? args[3] : args[2]);
+			}
+		}
+		else if (args.length == 2 && args[0].equals("verify")) {
+			try (HuffmanArchive archive = new HuffmanArchive(args[1])) {
+				archive.verify();
+				System.out.println(archive.getEntries().size() + " entries OK");
+			}
+		}
+		else {
+			System.out.println("Usage: java huffPackage.HuffmanArchive create archive file ...");
+			System.out.println("       java huffPackage.HuffmanArchive list archive");
+			System.out.println("       java huffPackage.HuffmanArchive extract archive name [file]");
+			System.out.println("       java huffPackage.HuffmanArchive verify archive");
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package huffPackage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A static Huffman code over bytes trained once on a corpus, for messages too small
+ * to pay for their own header (or for counting their letters and building a tree).
+ * Every message coded with a dictionary is only the dictionary ID and the message
+ * length (varints) followed by the codes of its bytes, padded with 0 bits to a whole
+ * byte. (The length is cheaper than EndOfText, which is rare in the corpus and so
+ * has a long code.)
+ * Bytes missing from the corpus are written as HuffmanTree.EscapeBytes and the byte,
+ * as with SampledHuffmanOutputStream.
+ *
+ * A dictionary never changes once built, so one instance can code any number of
+ * messages at the same time. Dictionaries registered with register() can be found
+ * again from the ID at the start of a message.
+ *
+ * Dictionary file layout (multi-byte numbers are big-endian):
+ *   4 bytes   magic "HUFD"
+ *   1 byte    format version
+ *   4 bytes   dictionary ID
+ *   then      the CompressedFileHeader of the code (FLAG_BYTES and FLAG_ESCAPE),
+ *             its original length being the size of the corpus
+ *
+ * Usage: java huffPackage.HuffmanDictionary id dictionaryFile [corpusFile ...]
+ * (trains on Test1.txt to Test5.txt when no corpus file is given)
+ *
+ * @author Armand
+ */
+public class HuffmanDictionary {
+
+	static final byte[] MAGIC = { 'H', 'U', 'F', 'D' };
+	static final int VERSION = 1;
+	static final int MAX_CODE_LENGTH = 32; // keeps codes within one BitFeedIn.peekBits
+
+	private static final Map<Integer, HuffmanDictionary> registered = new ConcurrentHashMap<Integer, HuffmanDictionary>();
+
+	private int id;            // identifies the dictionary in the messages it codes
+	private HuffmanTree tree;  // canonical tree over bytes and EscapeBytes (and an unused EndOfText)
+	private long corpusLength; // number of bytes the code was trained on
+
+	private HuffmanDictionary(int id, HuffmanTree tree, long corpusLength) {
+		if (id < 0)
+			throw new IllegalArgumentException("Invalid dictionary ID " + id);
+		this.id = id;
+		this.tree = tree;
+		this.corpusLength = corpusLength;
+	}
+
+	/**
+	 * Builds the code of a dictionary from the bytes of a corpus
+	 *
+	 * @param id the dictionary ID, 0 or more
+	 * @param corpusFiles the files of the corpus, all read into memory
+	 * @throws IOException
+	 */
+	public static HuffmanDictionary train(int id, String... corpusFiles) throws IOException {
+		ByteArrayOutputStream corpus = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (String file : corpusFiles) {
+			try (InputStream in = new FileInputStream(file)) {
+				int n = in.read(buffer);
+				while (n != -1) {
+					corpus.write(buffer, 0, n);
+					n = in.read(buffer);
+				}
+			}
+		}
+		LetterFrequencies letterFreq = new LetterFrequencies(corpus.toByteArray(), corpus.size());
+		return new HuffmanDictionary(id, new HuffmanTree(letterFreq, MAX_CODE_LENGTH).canonical(), corpus.size());
+	}
+
+	/**
+	 * Reads a dictionary file written by save()
+	 *
+	 * @throws IOException if the file is not a dictionary of this version
+	 */
+	public static HuffmanDictionary load(String fileName) throws IOException {
+		try (InputStream in = new FileInputStream(fileName)) {
+			DataInputStream data = new DataInputStream(in);
+			byte[] magic = new byte[MAGIC.length];
+			data.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException("Not a Huffman dictionary (bad magic number)");
+			int version = data.readUnsignedByte();
+			if (version != VERSION)
+				throw new IOException("Unsupported Huffman dictionary version " + version);
+			int id = data.readInt();
+			CompressedFileHeader header = CompressedFileHeader.read(data);
+			int flags = CompressedFileHeader.FLAG_BYTES | CompressedFileHeader.FLAG_ESCAPE;
+			if (header.getFlags() != flags || id < 0)
+				throw new IOException("Corrupt Huffman dictionary");
+			return new HuffmanDictionary(id, header.buildTree(), header.getOriginalLength());
+		}
+	}
+
+	/**
+	 * Writes the dictionary to a file that load() reads back
+	 *
+	 * @throws IOException
+	 */
+	public void save(String fileName) throws IOException {
+		try (OutputStream out = new FileOutputStream(fileName)) {
+			DataOutputStream data = new DataOutputStream(out);
+			data.write(MAGIC);
+			data.writeByte(VERSION);
+			data.writeInt(id);
+			new CompressedFileHeader(tree, corpusLength,
+					CompressedFileHeader.FLAG_BYTES | CompressedFileHeader.FLAG_ESCAPE).write(data);
+		}
+	}
+
+	/**
+	 * Makes the dictionary available to forId(), replacing any with the same ID
+	 */
+	public static void register(HuffmanDictionary dictionary) {
+		registered.put(dictionary.id, dictionary);
+	}
+
+	/**
+	 * The registered dictionary with an ID, or null if there is none
+	 */
+	public static HuffmanDictionary forId(int id) {
+		return registered.get(id);
+	}
+
+	/**
+	 * The ID of the dictionary a message was coded with
+	 *
+	 * @throws IOException if the message is too short to hold an ID
+	 */
+	public static int idOf(byte[] message) throws IOException {
+		return readVarInt(message, new int[1]);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Codes a message with this dictionary
+	 */
+	public byte[] encode(byte[] message) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(message.length / 2 + 8);
+		writeVarInt(out, id);
+		writeVarInt(out, message.length);
+
+		long bitBuffer = 0; // bits not yet written, right-aligned
+		int numBits = 0;    // fewer than 8 between symbols
+		for (int i = 0; i < message.length; i++) {
+			int c = message[i] & 0xFF;
+			int length;
+			if (tree.leafWhereLetterIs[c] != null) {
+				length = tree.codeLength[c];
+				bitBuffer = (bitBuffer << length) | tree.codeBits[c];
+			}
+			else {
+				length = tree.codeLength[HuffmanTree.EscapeBytes] + 8;
+				bitBuffer = (bitBuffer << length) | (tree.codeBits[HuffmanTree.EscapeBytes] << 8) | c;
+			}
+			numBits += length;
+			while (numBits >= 8) {
+				numBits -= 8;
+				out.write((int) (bitBuffer >>> numBits));
+			}
+		}
+		if (numBits > 0)
+			out.write((int) (bitBuffer << (8 - numBits)));
+		return out.toByteArray();
+	}
+
+	/**
+	 * Codes a String, as UTF-8, with this dictionary
+	 */
+	public byte[] encode(String message) {
+		return encode(message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Restores a message coded with this dictionary
+	 *
+	 * @throws IOException if the message was coded with another dictionary, or is corrupt
+	 */
+	public byte[] decode(byte[] message) throws IOException {
+		int[] position = new int[1];
+		int messageId = readVarInt(message, position);
+		if (messageId != id)
+			throw new IOException("Message was coded with dictionary " + messageId + ", not " + id);
+		int length = readVarInt(message, position);
+		if (length < 0 || length > 8L * (message.length - position[0]))
+			throw new IOException("Corrupt message length " + length);
+		BitFeedInForBytes bits = new BitFeedInForBytes(message, position[0], message.length - position[0]);
+		byte[] decoded = new byte[length];
+		for (int i = 0; i < length; i++) {
+			int c = tree.decodeCharacter(bits);
+			if (c == HuffmanTree.EscapeBytes) {
+				if (!bits.hasNext())
+					throw new IOException("Message is truncated");
+				c = bits.readBits(8);
+			}
+			else if (c > 255)
+				throw new IOException("Message is truncated or corrupt");
+			decoded[i] = (byte) c;
+		}
+		return decoded;
+	}
+
+	/**
+	 * Restores a String coded, as UTF-8, with this dictionary
+	 *
+	 * @throws IOException if the message was coded with another dictionary, or is corrupt
+	 */
+	public String decodeString(byte[] message) throws IOException {
+		return new String(decode(message), StandardCharsets.UTF_8);
+	}
+
+	// unsigned LEB128, as in CompressedFileHeader
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	// reads the varint at position[0] of a message, moving position[0] past it
+	private static int readVarInt(byte[] message, int[] position) throws IOException {
+		int value = 0;
+		int i = position[0];
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (i == message.length)
+				throw new IOException("Message is truncated");
+			int b = message[i++] & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				position[0] = i;
+				return value;
+			}
+		}
+		throw new IOException("Corrupt message (varint too long)");
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: java huffPackage.HuffmanDictionary id dictionaryFile [corpusFile ...]");
+			return;
+		}
+		int id = Integer.parseInt(args[0]);
+		String[] corpus = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : new String[] {
+				"Test1.txt", "Test2.txt", "Test3.txt", "Test4.txt", "Test5.txt" };
+		HuffmanDictionary dictionary = train(id, corpus);
+		dictionary.save(args[1]);
+		System.out.println("Dictionary " + id + " trained on " + dictionary.corpusLength
+				+ " bytes, written to " + args[1]);
+	}
+}
@@ -0,0 +1,125 @@
+package huffPackage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * InputStream that decompresses, a few bytes at a time, data written by a
+ * HuffmanOutputStream or a SampledHuffmanOutputStream. The tree is rebuilt from the
+ * CompressedFileHeader at the start of the stream, so only the compressed data itself
+ * is needed. Data stored uncoded (FLAG_STORED) is read as it is, up to its end.
+ * 
+ * Only the buffer of the underlying BufferedBitReader is kept in memory, however
+ * long the data. Closing this stream closes the source stream.
+ * 
+ * @author Armand
+ */
+public class HuffmanInputStream extends InputStream {
+
+    private HuffmanTree tree;         // canonical tree rebuilt from the header
+    private BufferedBitReader bits;   // supplies the codes, or null when the data is stored
+    private InputStream stored;       // supplies the bytes of data stored uncoded, or null
+    private long remaining;           // number of bytes still to decode, UNKNOWN_LENGTH if the data ends at EndOfText
+    private boolean escape;           // the code has HuffmanTree.EscapeBytes for bytes sent as they are
+
+    /**
+     * Reads the header and gets ready to decode
+     * 
+     * @param in the stream holding the compressed data
+     * @throws IOException if the stream is not a compressed byte stream
+     */
+    public HuffmanInputStream(InputStream in) throws IOException {
+        this(new BufferedInputStream(in), null);
+    }
+
+    /**
+     * Gets ready to decode codes whose header is stored elsewhere (as in a HuffmanArchive)
+     * 
+     * @param in the stream holding the codes, or the header and the codes if header is null
+     * @param header the header of the codes, or null to read it from in
+     * @throws IOException if the codes are not of a compressed byte stream
+     */
+    HuffmanInputStream(InputStream in, CompressedFileHeader header) throws IOException {
+        if (header == null)
+            header = CompressedFileHeader.read(in);
+        if ((header.getFlags() & CompressedFileHeader.FLAG_BYTES) == 0)
+            throw new IOException("Compressed data holds characters, not bytes (use FileManipulation.Decompress)");
+        if (header.isStored()) {
+            stored = in;
+            return;
+        }
+        tree = header.buildTree();
+        remaining = header.getOriginalLength();
+        escape = (header.getFlags() & CompressedFileHeader.FLAG_ESCAPE) != 0;
+        bits = new BufferedBitReader(in);
+    }
+
+    /**
+     * Decodes one byte
+     * 
+     * @return the byte (0 to 255), or -1 at the end of the data
+     * @throws IOException if the compressed data is corrupt
+     */
+    @Override
+    public int read() throws IOException {
+        if (stored != null)
+            return stored.read();
+        if (remaining == 0)
+            return -1;
+        int symbol = decode();
+        if (remaining == CompressedFileHeader.UNKNOWN_LENGTH) {
+            if (symbol == tree.getEndOfText()) {
+                remaining = 0;
+                return -1;
+            }
+            return symbol;
+        }
+        remaining--;
+        if (remaining == 0 && decode() != tree.getEndOfText())
+            throw new IOException("Compressed data is missing EndOfText");
+        return symbol;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (stored != null)
+            return stored.read(b, off, len);
+        if (remaining == 0)
+            return -1;
+        int n = remaining == CompressedFileHeader.UNKNOWN_LENGTH ? len : (int) Math.min(len, remaining);
+        for (int i = 0; i < n; i++) {
+            int c = read();
+            if (c == -1)
+                return i == 0 ? -1 : i;
+            b[off + i] = (byte) c;
+        }
+        return n;
+    }
+
+    private int decode() throws IOException {
+        try {
+            int symbol = tree.decodeCharacter(bits);
+            if (escape && symbol == HuffmanTree.EscapeBytes) {
+                if (!bits.hasNext())
+                    throw new IOException("Compressed data is truncated or corrupt");
+                return bits.readBits(8);
+            }
+            if (symbol > 255 && !(symbol == tree.getEndOfText() && remaining <= 0))
+                throw new IOException("Compressed data is truncated or corrupt");
+            return symbol;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (stored != null)
+            stored.close();
+        else
+            bits.close();
+    }
+}
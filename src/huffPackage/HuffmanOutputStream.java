@@ -0,0 +1,167 @@
+package huffPackage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream that Huffman-compresses the bytes written to it, a few at a time,
+ * into another stream. The bytes must have been counted beforehand (for instance with
+ * LetterFrequencies(InputStream) over the same data), since the code is fixed by the
+ * CompressedFileHeader written when the stream is created.
+ * 
+ * Only the buffer of the underlying BufferedBitWriter is kept in memory, however
+ * long the data. Closing the stream writes EndOfText and closes the target stream.
+ * 
+ * When coding would not save at least 1/2^BlockCompressor.MIN_GAIN_SHIFT of the data
+ * (its exact size, header included, is known once the tree is built), the data is
+ * stored instead: a header with FLAG_STORED, then the bytes as they are. Incompressible
+ * data then costs neither encoding nor decoding, and grows by STORED_HEADER_SIZE bytes
+ * at most.
+ * 
+ * @author Armand
+ */
+public class HuffmanOutputStream extends OutputStream {
+
+    private HuffmanTree tree;         // canonical tree used for encoding
+    private BufferedBitWriter bits;   // receives the codes, or null when the data is stored
+    private OutputStream stored;      // receives the bytes as they are when coding would not pay off, or null
+    private long expectedLength;      // number of bytes announced in the header
+    private long written;             // number of bytes encoded so far
+    private boolean closed;
+
+    /**
+     * Writes the header and gets ready to encode
+     * 
+     * @param out the stream receiving the compressed data
+     * @param letterFreq the byte counts of the data that is going to be written,
+     *        as given by LetterFrequencies(InputStream)
+     * @throws IOException
+     */
+    public HuffmanOutputStream(OutputStream out, LetterFrequencies letterFreq) throws IOException {
+        this(out, letterFreq, 64);
+    }
+
+    /**
+     * Writes the header and gets ready to encode with codes of at most maxCodeLength bits
+     * 
+     * @param out the stream receiving the compressed data
+     * @param letterFreq the byte counts of the data that is going to be written,
+     *        as given by LetterFrequencies(InputStream)
+     * @param maxCodeLength the longest code allowed (see HuffmanTree(LetterFrequencies, int))
+     * @throws IOException
+     */
+    public HuffmanOutputStream(OutputStream out, LetterFrequencies letterFreq, int maxCodeLength) throws IOException {
+        if (letterFreq.getAlphabetSize() != LetterFrequencies.NUM_BYTES)
+            throw new IllegalArgumentException("Letter frequencies must be counted over bytes");
+        tree = new HuffmanTree(letterFreq, maxCodeLength).canonical();
+        expectedLength = letterFreq.getTotal();
+        CompressedFileHeader header = new CompressedFileHeader(tree, expectedLength, CompressedFileHeader.FLAG_BYTES);
+        if (worthCoding(tree, letterFreq, header)) {
+            header.write(out);
+            bits = new BufferedBitWriter(out);
+        }
+        else {
+            CompressedFileHeader.stored().write(out);
+            stored = new BufferedOutputStream(out, 1 << 16);
+        }
+    }
+
+    /**
+     * Gets ready to encode with a canonical tree whose header is stored elsewhere
+     * (as in a HuffmanArchive): only the codes are written to out
+     * 
+     * @param out the stream receiving the codes
+     * @param tree the canonical tree over bytes to encode with
+     * @param expectedLength the number of bytes that are going to be written
+     */
+    HuffmanOutputStream(OutputStream out, HuffmanTree tree, long expectedLength) {
+        if (tree.getEndOfText() != HuffmanTree.EndOfBytes)
+            throw new IllegalArgumentException("Tree must be over bytes");
+        this.tree = tree;
+        this.expectedLength = expectedLength;
+        bits = new BufferedBitWriter(out);
+    }
+
+    /**
+     * Gets ready to copy the bytes as they are, for data whose header
+     * (CompressedFileHeader.stored()) is stored elsewhere
+     * 
+     * @param out the stream receiving the bytes
+     * @param expectedLength the number of bytes that are going to be written
+     */
+    HuffmanOutputStream(OutputStream out, long expectedLength) {
+        this.expectedLength = expectedLength;
+        stored = new BufferedOutputStream(out, 1 << 16);
+    }
+
+    /**
+     * Whether coding with tree the data counted into letterFreq, header included, saves
+     * at least 1/2^BlockCompressor.MIN_GAIN_SHIFT of storing it; the size of the codes
+     * is exact, from the code lengths
+     */
+    static boolean worthCoding(HuffmanTree tree, LetterFrequencies letterFreq, CompressedFileHeader header) {
+        char[] letters = letterFreq.getLetters();
+        long[] freq = letterFreq.getLongFrequencies();
+        long bits = tree.codeLength[tree.getEndOfText()];
+        for (int i = 0; i < letters.length; i++)
+            bits += freq[i] * tree.codeLength[letters[i]];
+        long coded = header.size() + bits / 8 + 2; // BufferedBitWriter ends with a partial byte and a bit count
+        long stored = CompressedFileHeader.STORED_HEADER_SIZE + letterFreq.getTotal();
+        return coded <= stored - (stored >> BlockCompressor.MIN_GAIN_SHIFT);
+    }
+
+    /**
+     * Encodes one byte
+     * 
+     * @throws IOException if the byte was not counted in the frequencies
+     */
+    @Override
+    public void write(int b) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (stored != null)
+            stored.write(b);
+        else
+            writeCode(b & 0xFF);
+        written++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (stored != null)
+            stored.write(b, off, len);
+        else {
+            for (int i = off; i < off + len; i++)
+                writeCode(b[i] & 0xFF);
+        }
+        written += len;
+    }
+
+    private void writeCode(int c) throws IOException {
+        if (c >= tree.leafWhereLetterIs.length || tree.leafWhereLetterIs[c] == null)
+            throw new IOException("Byte " + c + " was not counted in the letter frequencies");
+        bits.writeBits(tree.codeBits[c], tree.codeLength[c]);
+    }
+
+    /**
+     * Writes EndOfText (unless the data is stored) and closes the underlying stream
+     * 
+     * @throws IOException if fewer or more bytes were written than were counted
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (stored != null)
+            stored.close();
+        else {
+            writeCode(HuffmanTree.EndOfBytes);
+            bits.close();
+        }
+        if (written != expectedLength)
+            throw new IOException("Wrote " + written + " bytes but " + expectedLength + " were counted");
+    }
+}
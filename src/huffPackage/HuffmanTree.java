@@ -3,7 +3,7 @@ import java.util.Arrays;
 import java.util.Iterator;
 
 /**
- * HuffmanTree creates and stores a Huffman tree based on Huffman nodes (an inner class),
+ * HuffmanTree creates and stores a Huffman tree based on Huffman nodes (a nested class),
  * It also provide a series of methods for encoding and decoding.
  * It uses a BitFeedOut which allows a stream of bits be sent continuously 
  * to be used for encoding.
@@ -16,18 +16,110 @@ import java.util.Iterator;
 public class HuffmanTree {
 	
  public static int EndOfText=((int)'\uffff')+1; //special symbol created to indicate end of text
+ public static int EndOfBytes=LetterFrequencies.NUM_BYTES; //end of text symbol of trees over bytes
+ public static int EscapeBytes=LetterFrequencies.NUM_BYTES; //symbol of trees built from a sample of bytes
+ 						// announcing a byte missing from the sample; their end of text is EscapeBytes+1
+ 
+ int endOfText=EndOfText; // end of text symbol of this tree, one past its last letter
 	
  HuffmanNode root=null; // root of the Huffman tree
  HuffmanNode[] leafWhereLetterIs;   // array indexed by characters, storing a reference to 
  									// the Huffman Node (leaf) in which the character is stored
+ long[] codeBits;    // array indexed by characters, storing the code of the character right-aligned
+ byte[] codeLength;  // array indexed by characters, storing the number of bits in the code
+ 
+ static final int DECODE_TABLE_BITS = 11; // bits looked up at once by the decoding tables
+ int[] decodeTable;  // multi-level decoding tables, the root table starts at position 0
+ int decodeTableSize;// number of positions of decodeTable in use
+ int rootTableBits;  // number of bits indexing the root table
 
  
  // Constructor receives frequency information which is used to call BuildTree
  public HuffmanTree (LetterFrequencies letterFreq) {
 	 
-	 root=BuildTree (letterFreq.getFrequencies(),letterFreq.getLetters());
+	 CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.TREE_BUILD);
+	 endOfText=letterFreq.getAlphabetSize();
+	 root=BuildTree (letterFreq.getLongFrequencies(),letterFreq.getLetters());
+	 BuildCodeTable();
+	 BuildDecodeTable();
+	 if (timer != null) timer.end(0, 0, letterFreq.getLetters().length+1);
+	 
+ }
+ 
+ // Constructor receiving frequency information and the longest code allowed: when the
+ // Huffman tree has longer codes, the optimal codes of at most maxCodeLength bits are
+ // computed instead (package-merge) and the tree is their canonical tree. Capping codes
+ // (e.g. at 15 or 24 bits) keeps them within a 64-bit bit buffer and two decoding tables.
+ public HuffmanTree (LetterFrequencies letterFreq, int maxCodeLength) {
+	 
+	 if (maxCodeLength < 1 || maxCodeLength > 64)
+		 throw new IllegalArgumentException("Invalid maximum code length " + maxCodeLength);
+	 CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.TREE_BUILD);
+	 endOfText=letterFreq.getAlphabetSize();
+	 root=BuildTree (letterFreq.getLongFrequencies(),letterFreq.getLetters());
+	 if (height(root) > maxCodeLength) // only the tree is replaced, the tables are built once
+		 root=BuildLimitedTree (letterFreq.getLongFrequencies(),letterFreq.getLetters(),maxCodeLength);
+	 BuildCodeTable();
+	 BuildDecodeTable();
+	 if (timer != null) timer.end(0, 0, letterFreq.getLetters().length+1);
 	 
  }
+ 
+ // Constructor receives the code length of each symbol and builds the tree
+ // of the canonical Huffman code for those lengths (used when decoding files,
+ // where only the code lengths are stored in the header)
+ public HuffmanTree (int[] symbols, int[] lengths) {
+	 
+	 this(symbols, lengths, LetterFrequencies.NUM_CHARS);
+	 
+ }
+ 
+ // Same, for an alphabet of alphabetSize letters (such as LetterFrequencies.NUM_BYTES),
+ // EndOfText being symbol alphabetSize
+ public HuffmanTree (int[] symbols, int[] lengths, int alphabetSize) {
+	 
+	 CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.TREE_BUILD);
+	 endOfText=alphabetSize;
+	 root=BuildCanonicalTree (symbols,lengths);
+	 BuildCodeTable();
+	 BuildDecodeTable();
+	 if (timer != null) timer.end(0, 0, symbols.length);
+	 
+ }
+ 
+ /**
+  * Returns the tree of the canonical Huffman code having the same code lengths as
+  * this tree. Encoding with it compresses just as well, and a decoder can rebuild
+  * it from the code lengths alone.
+  */
+ public HuffmanTree canonical() {
+	 int n = 0;
+	 for (int i = 0; i < leafWhereLetterIs.length; i++)
+		 if (leafWhereLetterIs[i] != null) n++;
+	 int[] symbols = new int[n];
+	 int[] lengths = new int[n];
+	 n = 0;
+	 for (int i = 0; i < leafWhereLetterIs.length; i++) {
+		 if (leafWhereLetterIs[i] != null) {
+			 symbols[n] = i;
+			 lengths[n++] = codeLength[i];
+		 }
+	 }
+	 return new HuffmanTree(symbols, lengths, endOfText);
+ }
+ 
+ // length of the longest code in this tree
+ public int getMaxCodeLength() {
+	 int max = 0;
+	 for (int i = 0; i < codeLength.length; i++)
+		 max = Math.max(max, codeLength[i]);
+	 return max;
+ }
+ 
+ // the symbol ending the text in this tree: EndOfText, or EndOfBytes for trees over bytes
+ public int getEndOfText() {
+	 return endOfText;
+ }
 
  // BuildTree builds the Huffman tree based on the letter frequencies
  /**
@@ -38,114 +130,326 @@ public class HuffmanTree {
   * @author Armand
   */
  
- private HuffmanNode BuildTree(int[] frequencies,char[] letters) {
+ private HuffmanNode BuildTree(long[] frequencies,char[] letters) {
 	 
 	 
 	/******** STEP 2 of Algorithm Huffman(X) **********************************/
-	// we use a priority queue to store frequencies of subtrees created 
-	// during the construction of the Huffman tree
-	HeapPriorityQueue<HuffmanNode, HuffmanNode> heap = 
-			new HeapPriorityQueue<HuffmanNode, HuffmanNode>(frequencies.length+1);
+	// instead of a priority queue, the letters are sorted once by (frequency, letter) and
+	// the subtrees are merged with two queues: the sorted leaves, and the merged subtrees,
+	// which are created in non-decreasing order of frequency. Taking the smaller head of
+	// the two queues (merged subtree first on equal frequencies, as the heap did since
+	// internal nodes compare with letter 0) gives the same tree in O(n) after the sort.
 	 
     // initialize array leftWhereLetterIs 
-	leafWhereLetterIs =new HuffmanNode[(int)'\uffff'+2]; // need 2^16+1 spaces
-	for (int i=0; i< (int)'\uffff'+2; i++)
-		leafWhereLetterIs[i]=null;
+	leafWhereLetterIs =new HuffmanNode[endOfText+1]; // need one space per letter, plus EndOfText
 	
 	/********* STEPS 3-5 of Algorithm Huffman(X) **********************************/
-	// creating one node per letter as a single tree inserted into the priority queue
-	// char letter is converted to an int
-	for (int i=0; i<frequencies.length; i++) {
-		if (frequencies[i]>0) {
-			HuffmanNode node= new HuffmanNode( (int)letters[i], frequencies[i],null,null,null);
-			leafWhereLetterIs[(int)letters[i]]=node;
-			heap.insert(node,node);
-		
-		}
-	}
-	// creating node for "EndOfText" special symbol
-	HuffmanNode specialNode= new HuffmanNode( EndOfText,0,null,null,null);
-	leafWhereLetterIs[EndOfText]=specialNode; // last position reserved
-	heap.insert(specialNode,specialNode);
+	// one key per letter: frequency in the high bits, letter in the low 17 bits (frequencies
+	// up to 2^46 fit, far more than the bytes of any file)
+	int n=1; // EndOfText is always a leaf
+	for (int i=0; i<frequencies.length; i++)
+		if (frequencies[i]>0) n++;
+	long[] keys=new long[n];
+	keys[0]=endOfText; // frequency 0
+	n=1;
+	for (int i=0; i<frequencies.length; i++)
+		if (frequencies[i]>0) keys[n++]=(frequencies[i]<<17) | letters[i];
+	Arrays.sort(keys);
 	
+	HuffmanNode[] leaves=new HuffmanNode[n];
+	for (int i=0; i<n; i++) {
+		int letter=(int)(keys[i] & 0x1FFFF);
+		leaves[i]=new HuffmanNode(letter,keys[i]>>>17,null,null,null);
+		leafWhereLetterIs[letter]=leaves[i];
+	}
 	
-	/************ STEPS 6-13 of Algorithm Huffman(X): task to be implemented ************/
-	while(heap.size()>1){
-		Entry<HuffmanNode, HuffmanNode> e1 = heap.removeMin();
-		Entry<HuffmanNode, HuffmanNode> e2 = heap.removeMin();
-		int newFreq = e1.getKey().getFrequency() + e2.getKey().getFrequency();
-		
-		HuffmanNode newNode = new HuffmanNode(0,newFreq,null,e1.getKey(),e2.getKey());
-		heap.insert(newNode, newNode);
-		e1.getKey().setParent(newNode);
-		e2.getKey().setParent(newNode);
+	/************ STEPS 6-13 of Algorithm Huffman(X) ************/
+	HuffmanNode[] merged=new HuffmanNode[n-1]; // queue of merged subtrees
+	long[] mergedFreq=new long[n-1];
+	int nextLeaf=0, nextMerged=0, numMerged=0;
+	while ((n-nextLeaf)+(numMerged-nextMerged)>1) {
+		HuffmanNode left=null, right=null;
+		long freq=0;
+		for (int k=0; k<2; k++) {
+			HuffmanNode node;
+			if (nextMerged<numMerged && (nextLeaf==n || mergedFreq[nextMerged]<=(keys[nextLeaf]>>>17))) {
+				freq+=mergedFreq[nextMerged];
+				node=merged[nextMerged++];
+			}
+			else {
+				freq+=keys[nextLeaf]>>>17;
+				node=leaves[nextLeaf++];
+			}
+			if (k==0) left=node; else right=node;
+		}
+		HuffmanNode newNode = new HuffmanNode(0,freq,null,left,right);
+		left.setParent(newNode);
+		right.setParent(newNode);
+		merged[numMerged]=newNode;
+		mergedFreq[numMerged++]=freq;
 	}
-	Entry<HuffmanNode, HuffmanNode> e = heap.removeMin();
 	
-	return e.getKey(); 
+	return numMerged>0 ? merged[numMerged-1] : leaves[0]; 
 	
  }
  
-// encodeCharacter encodes the character c using the Huffman tree
-// returning its encoding as String of 0s and 1s representing the bits
-// In the handout example if c='G' this method will return "011"
+ /**
+  * Builds the tree of the optimal code whose codes have at most maxCodeLength bits,
+  * using the package-merge algorithm; the code is then made canonical.
+  * @throws IllegalArgumentException if there are more than 2^maxCodeLength symbols
+  */
+ private HuffmanNode BuildLimitedTree(long[] frequencies, char[] letters, int maxCodeLength) {
+	 
+	 // same (frequency, letter) keys and order as BuildTree, EndOfText included
+	 int n=1;
+	 for (int i=0; i<frequencies.length; i++)
+		 if (frequencies[i]>0) n++;
+	 if (maxCodeLength < 63 && n > (1L << maxCodeLength))
+		 throw new IllegalArgumentException(n + " symbols cannot have codes of at most " + maxCodeLength + " bits");
+	 long[] keys=new long[n];
+	 keys[0]=endOfText;
+	 n=1;
+	 for (int i=0; i<frequencies.length; i++)
+		 if (frequencies[i]>0) keys[n++]=(frequencies[i]<<17) | letters[i];
+	 Arrays.sort(keys);
+	 
+	 long[] weights=new long[n];
+	 int[] symbols=new int[n];
+	 for (int i=0; i<n; i++) {
+		 weights[i]=keys[i]>>>17;
+		 symbols[i]=(int)(keys[i] & 0x1FFFF);
+	 }
+	 return BuildCanonicalTree(symbols, packageMerge(weights, maxCodeLength));
+ }
+ 
+ /*
+  * Package-merge: list 1 holds the symbols (sorted by weight); list j+1 merges the symbols
+  * with the packages made of consecutive pairs of list j. The 2n-2 lightest items of the
+  * last list are the optimal choice, and each symbol's code length is the number of times
+  * it is part of them. Only which items of each list are symbols needs to be kept:
+  * taking a prefix of list j takes the lightest symbols once, plus whole packages which
+  * stand for twice as many items at the start of list j-1.
+  */
+ private static int[] packageMerge(long[] weights, int maxCodeLength) {
+	 int n=weights.length;
+	 int[] lengths=new int[n];
+	 if (n<2) return lengths;
+	 
+	 boolean[][] isSymbol=new boolean[maxCodeLength][];
+	 long[] list=weights.clone();
+	 isSymbol[0]=new boolean[n];
+	 Arrays.fill(isSymbol[0], true);
+	 for (int j=1; j<maxCodeLength; j++) {
+		 int packages=list.length/2;
+		 long[] merged=new long[n+packages];
+		 boolean[] flags=new boolean[n+packages];
+		 int s=0, p=0;
+		 for (int k=0; k<merged.length; k++) {
+			 long package_=p<packages ? list[2*p]+list[2*p+1] : Long.MAX_VALUE;
+			 if (s<n && weights[s]<=package_) {
+				 merged[k]=weights[s++];
+				 flags[k]=true;
+			 }
+			 else {
+				 merged[k]=package_;
+				 p++;
+			 }
+		 }
+		 list=merged;
+		 isSymbol[j]=flags;
+	 }
+	 
+	 int take=2*n-2;
+	 for (int j=maxCodeLength-1; j>=0; j--) {
+		 int symbolsTaken=0;
+		 for (int k=0; k<take; k++)
+			 if (isSymbol[j][k]) symbolsTaken++;
+		 for (int i=0; i<symbolsTaken; i++)
+			 lengths[i]++;
+		 take=2*(take-symbolsTaken);
+	 }
+	 return lengths;
+ }
  
  /**
-  * Method I designed. Here, a character c is referenced as an int and is encoded using the Huffman tree
-  * @param c, a reference to one of the leaf characters, as an int
-  * @return The specific Huffman Code for that letter
-  * @author Armand
+  * Builds the tree of the canonical code for the given code lengths: symbols are
+  * sorted by code length and then by value, and each one gets the next code of its
+  * length, so equal lengths always produce the same tree.
+  * @throws IllegalArgumentException if the lengths do not describe a complete prefix code
   */
+ private HuffmanNode BuildCanonicalTree(int[] symbols, int[] lengths) {
+	 
+	 leafWhereLetterIs =new HuffmanNode[endOfText+1];
+	 
+	 if (symbols.length == 1 && lengths[0] == 0) { // tree made of a single leaf
+		 HuffmanNode leaf = new HuffmanNode(symbols[0], 0, null, null, null);
+		 leafWhereLetterIs[symbols[0]] = leaf;
+		 return leaf;
+	 }
+	 
+	 long[] order = new long[symbols.length];
+	 for (int i = 0; i < symbols.length; i++) {
+		 if (lengths[i] < 1 || lengths[i] > 64)
+			 throw new IllegalArgumentException("Invalid code length " + lengths[i] + " for symbol " + symbols[i]);
+		 if (symbols[i] < 0 || symbols[i] >= leafWhereLetterIs.length)
+			 throw new IllegalArgumentException("Invalid symbol " + symbols[i]);
+		 order[i] = ((long) lengths[i] << 32) | symbols[i];
+	 }
+	 Arrays.sort(order);
+	 
+	 HuffmanNode top = new HuffmanNode(0, 0, null, null, null);
+	 long code = 0;
+	 int previousLength = 0;
+	 for (int i = 0; i < order.length; i++) {
+		 int length = (int) (order[i] >>> 32);
+		 int symbol = (int) order[i];
+		 code <<= length - previousLength;
+		 previousLength = length;
+		 if (length < 64 && (code >>> length) != 0)
+			 throw new IllegalArgumentException("Code lengths are over-subscribed");
+		 
+		 if (leafWhereLetterIs[symbol] != null)
+			 throw new IllegalArgumentException("Repeated symbol " + symbol);
+		 
+		 HuffmanNode current = top;
+		 for (int b = length - 1; b > 0; b--) {
+			 boolean right = ((code >>> b) & 1) != 0;
+			 HuffmanNode next = right ? current.rightChild() : current.leftChild();
+			 if (next == null) {
+				 next = new HuffmanNode(0, 0, current, null, null);
+				 if (right) current.setRightChild(next); else current.setLeftChild(next);
+			 }
+			 current = next;
+		 }
+		 HuffmanNode leaf = new HuffmanNode(symbol, 0, current, null, null);
+		 if ((code & 1) != 0) current.setRightChild(leaf); else current.setLeftChild(leaf);
+		 leafWhereLetterIs[symbol] = leaf;
+		 code++;
+	 }
+	 if (previousLength < 64 && code != (1L << previousLength))
+		 throw new IllegalArgumentException("Code lengths are incomplete");
+	 
+	 return top;
+ }
+ 
+ /**
+  * Walks the finished tree once and records, for every leaf, its code packed into a long
+  * together with the code length, so that encoding is a table lookup instead of a search.
+  * A code of length 0 only happens when the tree is a single leaf (empty text).
+  */
+ private void BuildCodeTable() {
+	 codeBits = new long[leafWhereLetterIs.length];
+	 codeLength = new byte[leafWhereLetterIs.length];
+	 
+	 // iterative pre-order walk carrying the path to each node
+	 HuffmanNode[] nodes = new HuffmanNode[64];
+	 long[] paths = new long[64];
+	 int[] depths = new int[64];
+	 int top = 0;
+	 nodes[0] = root; paths[0] = 0; depths[0] = 0;
+	 while (top >= 0) {
+		 HuffmanNode current = nodes[top];
+		 long path = paths[top];
+		 int depth = depths[top--];
+		 if (current.isLeaf()) {
+			 if (depth > 64)
+				 throw new IllegalStateException("Huffman code longer than 64 bits");
+			 codeBits[current.getLetter()] = path;
+			 codeLength[current.getLetter()] = (byte) depth;
+		 }
+		 else {
+			 if (top + 2 >= nodes.length) {
+				 nodes = Arrays.copyOf(nodes, nodes.length * 2);
+				 paths = Arrays.copyOf(paths, paths.length * 2);
+				 depths = Arrays.copyOf(depths, depths.length * 2);
+			 }
+			 nodes[++top] = current.rightChild(); paths[top] = (path << 1) | 1; depths[top] = depth + 1;
+			 nodes[++top] = current.leftChild();  paths[top] = path << 1;       depths[top] = depth + 1;
+		 }
+	 }
+ }
+ 
+ /**
+  * Builds the decoding tables from the tree. The root table is indexed by the next
+  * rootTableBits bits of input; each position either holds a leaf (symbol and number
+  * of bits it uses) or a link to a second-level table for the subtree reached after
+  * those bits, which in turn may link further down for very long codes.
+  * 
+  * Leaf entry: symbol << 7 | bitsUsed << 1
+  * Link entry: tableOffset << 5 | tableBits << 1 | 1
+  */
+ private void BuildDecodeTable() {
+	 decodeTable = new int[1 << DECODE_TABLE_BITS];
+	 decodeTableSize = 0;
+	 if (root.isLeaf()) {
+		 rootTableBits = 0;
+		 return;
+	 }
+	 int link = buildSubTable(root);
+	 rootTableBits = (link >>> 1) & 15;
+ }
+ 
+ // allocates and fills the table for the subtree at node, returning a link entry to it
+ private int buildSubTable(HuffmanNode node) {
+	 int bits = Math.min(DECODE_TABLE_BITS, height(node));
+	 int offset = decodeTableSize;
+	 decodeTableSize += 1 << bits;
+	 if (decodeTableSize > decodeTable.length)
+		 decodeTable = Arrays.copyOf(decodeTable, Math.max(decodeTableSize, decodeTable.length * 2));
+	 fillSubTable(node, 0, 0, bits, offset);
+	 return (offset << 5) | (bits << 1) | 1;
+ }
+ 
+ private void fillSubTable(HuffmanNode node, int depth, int index, int bits, int offset) {
+	 if (node.isLeaf()) {
+		 int entry = (node.getLetter() << 7) | (depth << 1);
+		 int from = offset + (index << (bits - depth));
+		 Arrays.fill(decodeTable, from, from + (1 << (bits - depth)), entry);
+	 }
+	 else if (depth == bits) {
+		 int link = buildSubTable(node);
+		 decodeTable[offset + index] = link;
+	 }
+	 else {
+		 fillSubTable(node.leftChild(), depth + 1, index << 1, bits, offset);
+		 fillSubTable(node.rightChild(), depth + 1, (index << 1) | 1, bits, offset);
+	 }
+ }
+ 
+ private int height(HuffmanNode node) {
+	 if (node.isLeaf()) return 0;
+	 return 1 + Math.max(height(node.leftChild()), height(node.rightChild()));
+ }
  
-private String encodeCharacter(int c) {
-	
-	Boolean found = false;
-	String s = "";
-	HuffmanNode leaf = leafWhereLetterIs[c];
-	HuffmanNode current = root;
-	HeapPriorityQueue <HuffmanNode, HuffmanNode> heap =
-			new HeapPriorityQueue <HuffmanNode, HuffmanNode>();
-	Entry <HuffmanNode, HuffmanNode> e;
-	heap.insert(current, current);
-	while(found != true){
-		e = heap.removeMin();
-		if(e.getKey().getLetter() == leaf.getLetter()){
-			current = e.getKey();
-			found = true;
-		}
-		if(e.getKey().rightChild() != null){
-			heap.insert(e.getValue().rightChild(), e.getKey().rightChild());
-		}
-		if(e.getKey().leftChild() != null){
-			heap.insert(e.getKey().leftChild(), e.getKey().leftChild());
-		}
-	}
-	/*This traverses from the leaf to the roof, giving up a reversed huffman code. 
-	The code is then re-reversed afterwards */
-	while(current.parent != null){
-		HuffmanNode temp = current;
-		current = current.parent();
-		if(current.leftChild() == temp){
-			s += 0;
-		}
-		else if(current.rightChild() == temp){
-			s += 1;
-		}
-	}
-	String out = new StringBuilder(s).reverse().toString();
-	return out; 
- } 
-
 // Encode the a character c using the Huffman tree
 // sending the encoded bits to argument BitFeedOut bfo
-// (please do not change this method)
+// (reads the precomputed code table, so no String is built per character)
 
  public void encodeCharacter (int c, BitFeedOut bfo) {
-	 String s=encodeCharacter(c);
-	 for (int i=0; i< s.length();i++) bfo.putNext(s.charAt(i));
+	 checkEncodable(c);
+	 int length = codeLength[c];
+	 long code = codeBits[c];
+	 for (int i = length - 1; i >= 0; i--) bfo.putNext(((code >>> i) & 1) == 0 ? '0' : '1');
 	
  }
  
+ // code of character c right-aligned in a long, valid for getCodeLength(c) bits
+ long getCode(int c) {
+	 checkEncodable(c);
+	 return codeBits[c];
+ }
+ 
+ // number of bits in the code of character c
+ int getCodeLength(int c) {
+	 checkEncodable(c);
+	 return codeLength[c];
+ }
+ 
+ private void checkEncodable(int c) {
+	 if (c < 0 || c >= leafWhereLetterIs.length || leafWhereLetterIs[c] == null)
+		 throw new IllegalArgumentException("Character not in Huffman tree: " + c);
+ }
+ 
 // decodeCharacter receives Iterator<Byte> bit that iterates through a sequence
 //  of bits of the  encoded string; this sequence must be
 // compatible with the Huffman tree (has been previously generated by
@@ -163,6 +467,7 @@ private String encodeCharacter(int c) {
 public int decodeCharacter(Iterator<Byte> bit) {
 	 
 	 if (root == null) return Integer.MAX_VALUE; // empty tree is not valid when decoding
+	 if (root.isLeaf()) return root.getLetter(); // single letter, coded with no bits
 
 	 HuffmanNode current = root;
 	 while(bit.hasNext()){
@@ -177,11 +482,56 @@ public int decodeCharacter(Iterator<Byte> bit) {
 			 return current.getLetter();
 		 }
 	 }
-	 return 0; 
+	 return Integer.MAX_VALUE; // ran out of bits in the middle of a character
  }
  
  
  
+/**
+ * Table-driven version of decodeCharacter: looks at rootTableBits bits at once and
+ * resolves most characters with a single lookup, following links to the second-level
+ * tables only for long codes. Consumes exactly the bits of the decoded character.
+ * @param bits, a stream of bits that can be looked at ahead of time
+ * @return an int value that references a letter in the huffman tree
+ * (Integer.MAX_VALUE when the tree is empty or there are no bits left)
+ */
+public int decodeCharacter(BitFeedIn bits) {
+	
+	 if (root == null) return Integer.MAX_VALUE;
+	 if (root.isLeaf()) return root.getLetter(); // single letter, coded with no bits
+	 if (!bits.hasNext()) return Integer.MAX_VALUE;
+	 
+	 int[] table = decodeTable;
+	 int tableBits = rootTableBits;
+	 int entry = table[bits.peekBits(tableBits)];
+	 while ((entry & 1) != 0) {
+		 bits.skipBits(tableBits);
+		 tableBits = (entry >>> 1) & 15;
+		 entry = table[(entry >>> 5) + bits.peekBits(tableBits)];
+	 }
+	 bits.skipBits((entry >>> 1) & 63);
+	 return entry >>> 7;
+}
+
+// decodeCharacter for a caller keeping its own bit buffer: decodes the code at the start
+// of bits, a left-aligned word holding at least the whole code, and returns the symbol
+// shifted left by 8 plus the length of its code (for the caller to consume)
+int lookupCode(long bits) {
+	 
+	 if (rootTableBits == 0) return root.getLetter() << 8; // single letter, coded with no bits
+	 
+	 int[] table = decodeTable;
+	 int tableBits = rootTableBits;
+	 int used = 0;
+	 int entry = table[(int) (bits >>> (64 - tableBits))];
+	 while ((entry & 1) != 0) {
+		 used += tableBits;
+		 tableBits = (entry >>> 1) & 15;
+		 entry = table[(entry >>> 5) + (int) ((bits << used) >>> (64 - tableBits))];
+	 }
+	 return (entry >>> 7) << 8 | (used + ((entry >>> 1) & 63));
+}
+ 
  // auxiliary methods for printing the codes in the Huffman tree
 
  void printCodeTable() {
@@ -198,7 +548,7 @@ public int decodeCharacter(Iterator<Byte> bit) {
  // the paths to leaves so it can print the codeword for each letter
  private void traverseInOrder(HuffmanNode current, String c) {
 	 if (current.isLeaf()) {
-		if (current.getLetter()!=EndOfText)
+		if (current.getLetter()!=endOfText)
 		       System.out.println((char)current.getLetter()+":"+c);
 		else   System.out.println("EndOfText:"+c);
 	 }
@@ -209,35 +559,13 @@ public int decodeCharacter(Iterator<Byte> bit) {
 		 
  }
  
- // provided byte encoding of the frequency information
- // in the format of 4 bytes per letter
- // 2 first bytes represent letter 2 last bytes represent frequency
- // This is useful for file decoding where the letter frequencies need
- // to be stored in a "header" of the encoded file 
- // (not used in the current version of the assignment)
- 
- byte[] freqsToBytes() {
-    int b=0;
-	byte [] treeBytes= new byte[(int)'\uffff'*4];
-    for (int i=0;i<'\uffff';i++) {
-		if (leafWhereLetterIs[i]!=null) {
-			int freq=leafWhereLetterIs[i].getFrequency();
-			char letter=(char)leafWhereLetterIs[i].getLetter();
-			treeBytes[b++]= (byte)(((int)letter)/256);
-			treeBytes[b++]= (byte)(((int)letter)%256);
-			treeBytes[b++]= (byte)(freq/256); 
-			treeBytes[b++]= (byte)(freq%256);			
-		}
-	}
-    return Arrays.copyOf(treeBytes, b);
- }
- 
- 	/**** inner class to Huffman tree that implements a Node in the tree ****/
-    // nothing to be changed in this inner class
- 	public class HuffmanNode implements Comparable<HuffmanNode> {
+ 	/**** nested class to Huffman tree that implements a Node in the tree ****/
+    // static so that trees maintained elsewhere (AdaptiveHuffmanTree) can use it too
+ 	public static class HuffmanNode implements Comparable<HuffmanNode> {
 		
 		int letter; // if the node is a leaf it will store a letter, otherwise it store null
-	    int frequency; // stores the sum of the frequencies of all leaves of the tree rooted at this node
+	    long frequency; // stores the sum of the frequencies of all leaves of the tree rooted at this node
+	    int number; // position in the sibling order of an adaptive tree; unused by static trees
 		private HuffmanNode parent, left, right; // reference to parent, left and right nodes.
 		
 		public HuffmanNode() {
@@ -245,7 +573,7 @@ public int decodeCharacter(Iterator<Byte> bit) {
 			frequency=-1;
 		}
 		
-		public HuffmanNode(int letter, int frequency, HuffmanNode parent, HuffmanNode left, HuffmanNode right) {
+		public HuffmanNode(int letter, long frequency, HuffmanNode parent, HuffmanNode left, HuffmanNode right) {
 			this.letter= letter;
 			this.frequency=frequency;
 			this.parent=parent; 
@@ -266,7 +594,9 @@ public int decodeCharacter(Iterator<Byte> bit) {
 		
 		int getLetter() {return letter;}
 		
-		int getFrequency() {return frequency;}
+		int getFrequency() {return Math.toIntExact(frequency);} // the tree of a file over 2GB needs getLongFrequency()
+		
+		long getLongFrequency() {return frequency;}
 
 		// setter methods
 		
@@ -278,14 +608,14 @@ public int decodeCharacter(Iterator<Byte> bit) {
 		
 		void setLetter(char letterVal) { letter = letterVal;}
 		
-		void setFrequency(int freqVal) { frequency = freqVal; }
+		void setFrequency(long freqVal) { frequency = freqVal; }
 
 		@Override
 		public int compareTo(HuffmanNode o) {
 			if (this.frequency==o.frequency) {
 				return this.letter-o.letter;
 			}
-			else return this.frequency-o.frequency;
+			else return Long.compare(this.frequency, o.frequency);
 			
 		}
 		
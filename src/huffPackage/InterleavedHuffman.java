@@ -0,0 +1,194 @@
+package huffPackage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Huffman coding of a block of bytes into STREAMS independent bit streams: byte i
+ * goes to stream i % STREAMS. Decoding a single stream is a chain where every code
+ * can only be looked up once the length of the previous one is known; decode()
+ * instead keeps one bit buffer per stream and decodes a byte from each in every
+ * turn of its loop, so the processor works on the four chains at the same time.
+ *
+ * Layout (multi-byte numbers are big-endian):
+ *   CompressedFileHeader  with FLAG_BYTES and FLAG_INTERLEAVED, the original length
+ *                         being the number of bytes of the block
+ *   jump table            4 bytes per stream but the last: its length in bytes
+ *   the streams, one after the other, each padded with 0 bits to a whole byte
+ *
+ * There is no EndOfText, the number of bytes of each stream following from the
+ * length of the block. Codes are limited to MAX_CODE_LENGTH bits so that a 64-bit
+ * buffer refilled a byte at a time always holds a whole code.
+ *
+ * @author Armand
+ */
+public class InterleavedHuffman {
+
+	public static final int STREAMS = 4;
+	static final int MAX_CODE_LENGTH = 32;
+
+	private static final VarHandle BIG_ENDIAN_LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	/**
+	 * Compresses length bytes of block starting at offset
+	 */
+	public static byte[] encode(byte[] block, int offset, int length) throws IOException {
+		return encode(block, offset, length, new LetterFrequencies(new ByteArrayInputStream(block, offset, length)));
+	}
+
+	/*
+	 * Same, with the bytes of the block already counted into lf
+	 */
+	static byte[] encode(byte[] block, int offset, int length, LetterFrequencies lf) throws IOException {
+		HuffmanTree tree = new HuffmanTree(lf, MAX_CODE_LENGTH).canonical();
+
+		BitPacker[] streams = new BitPacker[STREAMS];
+		for (int s = 0; s < STREAMS; s++)
+			streams[s] = new BitPacker(length / (2 * STREAMS) + 16);
+		for (int i = 0; i < length; i++) {
+			int c = block[offset + i] & 0xFF;
+			streams[i % STREAMS].put(tree.codeBits[c], tree.codeLength[c]);
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+		DataOutputStream out = new DataOutputStream(compressed);
+		new CompressedFileHeader(tree, length,
+				CompressedFileHeader.FLAG_BYTES | CompressedFileHeader.FLAG_INTERLEAVED).write(out);
+		for (int s = 0; s < STREAMS; s++)
+			streams[s].finish();
+		for (int s = 0; s < STREAMS - 1; s++)
+			out.writeInt(streams[s].size);
+		for (int s = 0; s < STREAMS; s++)
+			out.write(streams[s].bytes, 0, streams[s].size);
+		out.flush();
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * Restores a block compressed by encode()
+	 *
+	 * @throws IOException if the data is not an interleaved block, or is corrupt
+	 */
+	public static byte[] decode(byte[] compressed) throws IOException {
+		ByteArrayInputStream bytes = new ByteArrayInputStream(compressed);
+		DataInputStream in = new DataInputStream(bytes);
+		CompressedFileHeader header = CompressedFileHeader.read(in);
+		if ((header.getFlags() & CompressedFileHeader.FLAG_INTERLEAVED) == 0)
+			throw new IOException("Not an interleaved block");
+		if (header.getOriginalLength() > Integer.MAX_VALUE - 8)
+			throw new IOException("Corrupt interleaved block length");
+		int length = (int) header.getOriginalLength();
+		HuffmanTree tree = header.buildTree();
+		if (tree.getMaxCodeLength() > MAX_CODE_LENGTH)
+			throw new IOException("Codes of an interleaved block are too long");
+
+		int[] start = new int[STREAMS + 1];
+		int position = 0;
+		for (int s = 0; s < STREAMS - 1; s++) {
+			int size = in.readInt();
+			if (size < 0)
+				throw new IOException("Corrupt interleaved jump table");
+			start[s] = position;
+			position += size;
+		}
+		start[STREAMS - 1] = position;
+		int dataStart = compressed.length - bytes.available();
+		for (int s = 0; s < STREAMS; s++)
+			start[s] += dataStart;
+		start[STREAMS] = compressed.length;
+		if (start[STREAMS - 1] > compressed.length || start[STREAMS - 1] < dataStart)
+			throw new IOException("Corrupt interleaved jump table");
+
+		byte[] block = new byte[length];
+		if (length == 0)
+			return block;
+
+		long b0 = 0, b1 = 0, b2 = 0, b3 = 0; // bit buffers, left-aligned
+		int n0 = 0, n1 = 0, n2 = 0, n3 = 0;  // valid bits in each buffer
+		int p0 = start[0], p1 = start[1], p2 = start[2], p3 = start[3];
+		int e0 = start[1], e1 = start[2], e2 = start[3], e3 = start[4];
+		int i = 0;
+		for (; i + STREAMS <= length; i += STREAMS) {
+			// refill: 8 bytes at once, keeping the whole bytes that fit (their bits land
+			// below the valid ones, where the next refill puts the same bits again)
+			if (p0 + 8 <= e0) { b0 |= (long) BIG_ENDIAN_LONGS.get(compressed, p0) >>> n0; p0 += (63 - n0) >>> 3; n0 |= 56; }
+			else for (; n0 <= 56 && p0 < e0; n0 += 8) b0 |= (compressed[p0++] & 0xFFL) << (56 - n0);
+			if (p1 + 8 <= e1) { b1 |= (long) BIG_ENDIAN_LONGS.get(compressed, p1) >>> n1; p1 += (63 - n1) >>> 3; n1 |= 56; }
+			else for (; n1 <= 56 && p1 < e1; n1 += 8) b1 |= (compressed[p1++] & 0xFFL) << (56 - n1);
+			if (p2 + 8 <= e2) { b2 |= (long) BIG_ENDIAN_LONGS.get(compressed, p2) >>> n2; p2 += (63 - n2) >>> 3; n2 |= 56; }
+			else for (; n2 <= 56 && p2 < e2; n2 += 8) b2 |= (compressed[p2++] & 0xFFL) << (56 - n2);
+			if (p3 + 8 <= e3) { b3 |= (long) BIG_ENDIAN_LONGS.get(compressed, p3) >>> n3; p3 += (63 - n3) >>> 3; n3 |= 56; }
+			else for (; n3 <= 56 && p3 < e3; n3 += 8) b3 |= (compressed[p3++] & 0xFFL) << (56 - n3);
+
+			int d0 = tree.lookupCode(b0);
+			int d1 = tree.lookupCode(b1);
+			int d2 = tree.lookupCode(b2);
+			int d3 = tree.lookupCode(b3);
+			block[i] = (byte) (d0 >>> 8);
+			block[i + 1] = (byte) (d1 >>> 8);
+			block[i + 2] = (byte) (d2 >>> 8);
+			block[i + 3] = (byte) (d3 >>> 8);
+			b0 <<= d0 & 0xFF;
+			b1 <<= d1 & 0xFF;
+			b2 <<= d2 & 0xFF;
+			b3 <<= d3 & 0xFF;
+			n0 -= d0 & 0xFF;
+			n1 -= d1 & 0xFF;
+			n2 -= d2 & 0xFF;
+			n3 -= d3 & 0xFF;
+			if ((n0 | n1 | n2 | n3) < 0 || ((d0 | d1 | d2 | d3) >>> 16) != 0) // read past a stream, or EndOfText
+				throw new IOException("Interleaved block is truncated or corrupt");
+		}
+
+		// the last length % STREAMS bytes, from the first streams
+		long[] buffers = { b0, b1, b2 };
+		int[] counts = { n0, n1, n2 };
+		int[] positions = { p0, p1, p2 };
+		for (int s = 0; i < length; i++, s++) {
+			for (; counts[s] <= 56 && positions[s] < start[s + 1]; counts[s] += 8)
+				buffers[s] |= (compressed[positions[s]++] & 0xFFL) << (56 - counts[s]);
+			int d = tree.lookupCode(buffers[s]);
+			counts[s] -= d & 0xFF;
+			if (counts[s] < 0 || (d >>> 16) != 0)
+				throw new IOException("Interleaved block is truncated or corrupt");
+			block[i] = (byte) (d >>> 8);
+		}
+		return block;
+	}
+
+	/*
+	 * Collects the codes of one stream, most significant bit first
+	 */
+	private static class BitPacker {
+		byte[] bytes;
+		int size;          // bytes used
+		long bitBuffer;    // bits not yet stored, right-aligned
+		int numBits;       // fewer than 8 between codes
+
+		BitPacker(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void put(long code, int length) {
+			bitBuffer = (bitBuffer << length) | code;
+			numBits += length;
+			if (size + 5 > bytes.length)
+				bytes = Arrays.copyOf(bytes, 2 * bytes.length + 8);
+			while (numBits >= 8) {
+				numBits -= 8;
+				bytes[size++] = (byte) (bitBuffer >>> numBits);
+			}
+		}
+
+		void finish() {
+			if (numBits > 0)
+				put(0, 8 - numBits);
+		}
+	}
+}
@@ -8,23 +8,39 @@ package huffPackage;
  */
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class LetterFrequencies {
 	
 	static int NUM_CHARS='\uffff'+1; // there are 2^16 possible characters in UTF-16
+	static int NUM_BYTES=256;         // there are 2^8 possible letters when counting bytes
 	
 	char[] letters;
-	int [] freq;
+	long [] freq; // long: a letter of a file over 2GB can show up more than Integer.MAX_VALUE times
+	int alphabetSize=NUM_CHARS; // letters are below alphabetSize, which is also the EndOfText of their trees
 	
 	public LetterFrequencies (char[] letters, int[] freq) {
+		this.letters=letters.clone();
+		this.freq=new long[freq.length];
+		for (int i=0; i<freq.length; i++) this.freq[i]=freq[i];
+	}
+	
+	public LetterFrequencies (char[] letters, long[] freq) {
 		this.letters=letters.clone();
 		this.freq=freq.clone();
 	}
 	
 	public LetterFrequencies(String inputText) {
 		
+		CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.COUNT);
 		int [] counter = new int[NUM_CHARS];
 		for (int i=0; i<NUM_CHARS; i++) counter[i]=0;
 		ArrayList<Character> lettersThatShowUp=new ArrayList<Character>();
@@ -32,18 +48,19 @@ public class LetterFrequencies {
             if (counter[(int)inputText.charAt(i)]==0) lettersThatShowUp.add(inputText.charAt(i));
 			counter[(int)inputText.charAt(i)]++;
 		}
-		freq=new int[lettersThatShowUp.size()];
+		freq=new long[lettersThatShowUp.size()];
 		letters=new char[lettersThatShowUp.size()];
 		for (int i=0; i<lettersThatShowUp.size();i++) {
 			letters[i]=lettersThatShowUp.get(i);
 			freq[i]=counter[(int)letters[i]];
 		}
+		if (timer != null) timer.end(2L*inputText.length(), 0, inputText.length());
 	}
 	
     public LetterFrequencies(InputStreamReader isr) throws IOException {
 		
-		int [] counter = new int[NUM_CHARS];
-		for (int i=0; i<NUM_CHARS; i++) counter[i]=0;
+		CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.COUNT);
+		long [] counter = new long[NUM_CHARS];
 		
 		ArrayList<Character> lettersThatShowUp=new ArrayList<Character>();
 		int c;
@@ -55,16 +72,305 @@ public class LetterFrequencies {
 			counter[c]++;
 			c=isr.read();
 		}
-		freq=new int[lettersThatShowUp.size()];
+		freq=new long[lettersThatShowUp.size()];
 		letters=new char[lettersThatShowUp.size()];
 		for (int i=0; i<lettersThatShowUp.size();i++) {
 			letters[i]=lettersThatShowUp.get(i);
 			freq[i]=counter[(int)letters[i]];
 		}
+		if (timer != null) timer.end(2*getTotal(), 0, getTotal());
 	}
 	
+    // counts the letters of inputText with the given number of workers, on threads of their own,
+    // each one counting a slice of the text in its own histogram; the result is the same as
+    // LetterFrequencies(inputText)
+    public LetterFrequencies(String inputText, int parallelism) {
+    	
+    	if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+    	CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.COUNT);
+    	int slice = Math.max(1, (inputText.length() + parallelism - 1) / parallelism);
+    	ForkJoinPool pool = new ForkJoinPool(parallelism);
+    	try {
+    		List<Future<Histogram>> slices = new ArrayList<Future<Histogram>>();
+    		for (int from=0; from<inputText.length(); from+=slice) {
+    			final int start=from, end=Math.min(from+slice, inputText.length());
+    			slices.add(pool.submit(() -> new Histogram().count(inputText, start, end)));
+    		}
+    		Histogram total = new Histogram();
+    		for (Future<Histogram> h : slices) total.merge(join(h));
+    		total.fill(this);
+    	} finally {
+    		pool.shutdown();
+    	}
+    	if (timer != null) timer.end(2L*inputText.length(), 0, inputText.length());
+    }
+    
+    // counts the letters read from isr with the given number of workers, on threads of their own:
+    // this thread reads the text in chunks which the workers take in turn, each one counting them
+    // in its own histogram, while the next ones are read. The reader is left open and the result
+    // is the same as LetterFrequencies(isr)
+    public LetterFrequencies(InputStreamReader isr, int parallelism) throws IOException {
+    	
+    	if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+    	CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.COUNT);
+    	int chunks = 2 * parallelism; // bounds the number of chunks held in memory
+    	RingBuffer<Chunk> full = new RingBuffer<Chunk>(chunks);  // read, waiting for a worker
+    	RingBuffer<Chunk> free = new RingBuffer<Chunk>(chunks);  // counted, waiting to be read into
+    	for (int i=0; i<chunks; i++) free.put(new Chunk());
+    	ForkJoinPool pool = new ForkJoinPool(parallelism);
+    	try {
+    		List<Future<Histogram>> workers = new ArrayList<Future<Histogram>>();
+    		for (int i=0; i<parallelism; i++) {
+    			workers.add(pool.submit(() -> {
+    				Histogram h = new Histogram();
+    				try {
+    					// chunks come out of full in text order, so each worker sees its own in order
+    					for (Chunk chunk = full.take(); chunk != null; chunk = full.take()) {
+    						h.count(chunk.text, chunk.length, chunk.offset);
+    						free.put(chunk);
+    					}
+    				} catch (IOException | RuntimeException e) {
+    					full.fail(e);
+    					free.fail(e);
+    					throw e;
+    				}
+    				return h;
+    			}));
+    		}
+    		try {
+    			long offset = 0;
+    			Chunk chunk = free.take();
+    			chunk.length = readChunk(isr, chunk.text);
+    			while (chunk.length > 0) {
+    				chunk.offset = offset;
+    				offset += chunk.length;
+    				full.put(chunk);
+    				chunk = free.take();
+    				chunk.length = readChunk(isr, chunk.text);
+    			}
+    			full.close();
+    		} catch (IOException | RuntimeException e) {
+    			full.fail(e);
+    			free.fail(e);
+    			throw e;
+    		}
+    		Histogram total = new Histogram();
+    		for (Future<Histogram> h : workers) total.merge(join(h));
+    		total.fill(this);
+    	} finally {
+    		pool.shutdown();
+    	}
+    	if (timer != null) timer.end(2*getTotal(), 0, getTotal());
+    }
+    
+    static final int CHUNK_SIZE = 1 << 16; // characters per chunk read by the parallel counter
+    
+    private static class Chunk {
+    	char [] text = new char[CHUNK_SIZE];
+    	int length;  // characters used
+    	long offset; // position of text[0] in the whole text
+    }
+    
+    private static int readChunk(InputStreamReader isr, char[] chunk) throws IOException {
+    	int n = 0;
+    	while (n < chunk.length) {
+    		int read = isr.read(chunk, n, chunk.length - n);
+    		if (read == -1) break;
+    		n += read;
+    	}
+    	return n;
+    }
+    
+    private static Histogram join(Future<Histogram> h) {
+    	try {
+    		return h.get();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException("Interrupted while counting letters", e);
+    	} catch (ExecutionException e) {
+    		throw new IllegalStateException("Counting letters failed", e.getCause());
+    	}
+    }
+    
+    /*
+     * Letter counts of some parts of the text, counted in text order, with the position where
+     * each letter first shows up, so merged histograms can list the letters in the order
+     * a sequential count would give
+     */
+    private static class Histogram {
+    	long [] counter = new long[NUM_CHARS];
+    	long [] first = new long[NUM_CHARS]; // position of the first occurrence of each letter counted
+    	char [] order = new char[16];        // letters counted, in the order they first show up here
+    	int distinct = 0;
+    	
+    	private void add(char c, long position) {
+    		if (distinct == order.length) order = Arrays.copyOf(order, distinct * 2);
+    		order[distinct++] = c;
+    		first[c] = position;
+    	}
+    	
+    	Histogram count(String text, int from, int to) {
+    		for (int i=from; i<to; i++) {
+    			char c = text.charAt(i);
+    			if (counter[c]++==0) add(c, i);
+    		}
+    		return this;
+    	}
+    	
+    	Histogram count(char[] text, int to, long offset) {
+    		for (int i=0; i<to; i++) {
+    			char c = text[i];
+    			if (counter[c]++==0) add(c, offset + i);
+    		}
+    		return this;
+    	}
+    	
+    	void merge(Histogram other) {
+    		for (int i=0; i<other.distinct; i++) {
+    			char c = other.order[i];
+    			if (counter[c]==0) add(c, other.first[c]);
+    			else first[c] = Math.min(first[c], other.first[c]);
+    			counter[c] += other.counter[c];
+    		}
+    	}
+    	
+    	void fill(LetterFrequencies lf) {
+    		long [] byFirst = new long[distinct]; // first occurrence above the letter, sorted
+    		for (int i=0; i<distinct; i++) byFirst[i] = first[order[i]] << 16 | order[i];
+    		Arrays.sort(byFirst);
+    		lf.letters = new char[distinct];
+    		lf.freq = new long[distinct];
+    		for (int i=0; i<distinct; i++) {
+    			lf.letters[i] = (char) byFirst[i];
+    			lf.freq[i] = counter[lf.letters[i]];
+    		}
+    	}
+    }
+    
+    // counts the bytes of a stream, each byte value being taken as the letter (char)0..(char)255;
+    // the stream is read in blocks and is left open. The alphabet is NUM_BYTES letters, so
+    // trees built from these frequencies only need room for 257 symbols
+    public LetterFrequencies(InputStream is) throws IOException {
+		
+		CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.COUNT);
+		alphabetSize = NUM_BYTES;
+		long [] counter = new long[NUM_BYTES];
+		byte [] buffer = new byte[8192];
+		
+		ArrayList<Character> lettersThatShowUp=new ArrayList<Character>();
+		int n = is.read(buffer);
+		
+		while (n!=-1) {
+			for (int i=0; i<n; i++) {
+				int c = buffer[i] & 0xFF;
+				if (counter[c]==0) lettersThatShowUp.add((char)c);
+				counter[c]++;
+			}
+			n = is.read(buffer);
+		}
+		freq=new long[lettersThatShowUp.size()];
+		letters=new char[lettersThatShowUp.size()];
+		for (int i=0; i<lettersThatShowUp.size();i++) {
+			letters[i]=lettersThatShowUp.get(i);
+			freq[i]=counter[(int)letters[i]];
+		}
+		if (timer != null) timer.end(getTotal(), 0, getTotal());
+	}
+    
+    // counts the bytes from position to limit of each buffer (such as the mapped windows of a
+    // file), as LetterFrequencies(InputStream) does but with the letters in increasing order;
+    // the positions of the buffers do not change
+    public LetterFrequencies(ByteBuffer... buffers) {
+		
+		CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.COUNT);
+		alphabetSize = NUM_BYTES;
+		long [] counter = new long[NUM_BYTES];
+		
+		ArrayList<Character> lettersThatShowUp=new ArrayList<Character>();
+		for (ByteBuffer buffer : buffers) {
+			int i=buffer.position(), limit=buffer.limit();
+			for (; i+8<=limit; i+=8) { // a long at a time: far fewer (bounds-checked) reads of a direct buffer
+				long word = buffer.getLong(i);
+				for (int shift=56; shift>=0; shift-=8) counter[(int) (word >>> shift) & 0xFF]++;
+			}
+			for (; i<limit; i++) counter[buffer.get(i) & 0xFF]++;
+		}
+		for (int c=0; c<NUM_BYTES; c++)
+			if (counter[c]!=0) lettersThatShowUp.add((char)c);
+		freq=new long[lettersThatShowUp.size()];
+		letters=new char[lettersThatShowUp.size()];
+		for (int i=0; i<lettersThatShowUp.size();i++) {
+			letters[i]=lettersThatShowUp.get(i);
+			freq[i]=counter[(int)letters[i]];
+		}
+		if (timer != null) timer.end(getTotal(), 0, getTotal());
+	}
+    
+    // counts the first length bytes of sample, a sample of a larger stream, over an alphabet of
+    // NUM_BYTES+1 letters: letter HuffmanTree.EscapeBytes stands for the bytes that do not show up
+    // in the sample. Its frequency estimates how often they will turn up in the rest of the stream
+    // as the number of bytes seen only once in the sample (Good-Turing), and is at least 1
+    public LetterFrequencies(byte[] sample, int length) {
+		
+		CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.COUNT);
+		alphabetSize = NUM_BYTES + 1;
+		int [] counter = new int[NUM_BYTES];
+		
+		ArrayList<Character> lettersThatShowUp=new ArrayList<Character>();
+		for (int i=0; i<length; i++) {
+			int c = sample[i] & 0xFF;
+			if (counter[c]==0) lettersThatShowUp.add((char)c);
+			counter[c]++;
+		}
+		int seenOnce = 0;
+		freq=new long[lettersThatShowUp.size()+1];
+		letters=new char[lettersThatShowUp.size()+1];
+		for (int i=0; i<lettersThatShowUp.size();i++) {
+			letters[i]=lettersThatShowUp.get(i);
+			freq[i]=counter[(int)letters[i]];
+			if (freq[i]==1) seenOnce++;
+		}
+		letters[letters.length-1]=(char)HuffmanTree.EscapeBytes;
+		freq[freq.length-1]=Math.max(1, seenOnce);
+		if (timer != null) timer.end(length, 0, length);
+	}
+    
+    // estimate of the number of bits a Huffman code built from these frequencies spends on the
+    // letters counted: their entropy, which the code comes within a bit per letter of (and much
+    // closer when no letter is very frequent), without building the tree
+    public long estimateCodedBits() {
+    	double total = getTotal();
+    	double bits = 0;
+    	for (int i=0; i<freq.length; i++)
+    		if (freq[i] > 0) bits += freq[i] * Math.log(total / freq[i]);
+    	return (long) Math.ceil(bits / Math.log(2));
+    }
     
+    // total number of letters counted
+    public long getTotal() {
+    	long total = 0;
+    	for (int i=0; i<freq.length; i++) total += freq[i];
+    	return total;
+    }
+    
+	// number of possible letters: NUM_CHARS for text, NUM_BYTES for bytes (NUM_BYTES+1 for samples)
+	public int getAlphabetSize() {
+		return alphabetSize;
+	}
+	
+	// the frequencies as ints, as they always were; throws ArithmeticException if one does
+	// not fit (a letter of a file over 2GB), for which getLongFrequencies() is needed
 	public int [] getFrequencies() {
+		int [] frequencies = new int[freq.length];
+		for (int i=0; i<freq.length; i++) {
+			if (freq[i] > Integer.MAX_VALUE)
+				throw new ArithmeticException("Letter " + (int) letters[i] + " shows up " + freq[i] + " times, more than an int holds");
+			frequencies[i] = (int) freq[i];
+		}
+		return frequencies;
+	}
+	
+	public long [] getLongFrequencies() {
 		return freq;
 	}
 
@@ -0,0 +1,262 @@
+package huffPackage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compresses and decompresses files in the format of HuffmanOutputStream (and so of
+ * FileManipulation.CompressFile) through NIO instead of streams: the input is
+ * memory-mapped with FileChannel.map and read in place, and the output is gathered
+ * in a direct ByteBuffer handed to FileChannel.write OUTPUT_BUFFER_SIZE bytes at a
+ * time. No byte goes through a heap buffer or a String on the way, so large files
+ * are coded with few copies and almost no garbage.
+ *
+ * Files are mapped in windows of at most MAP_SIZE bytes, since a single mapping is
+ * limited to 2GB.
+ *
+ * @author Armand
+ */
+public class MappedFileCompressor {
+
+	static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+	static final int MAP_SIZE = 1 << 30;
+	static final int MAX_CODE_LENGTH = 32; // codes fit in the 64-bit buffer along with pending bits
+	private static final int MAX_HEADER_SIZE = 18 + (HuffmanTree.EndOfBytes + 1) * 4;
+
+	/**
+	 * Compresses fileName into compressedFile
+	 *
+	 * @throws IOException
+	 */
+	public void compress(String fileName, String compressedFile) throws IOException {
+		try (FileChannel in = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(Paths.get(compressedFile), StandardOpenOption.CREATE,
+					 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer[] windows = map(in, 0, in.size());
+			LetterFrequencies lf = new LetterFrequencies(windows);
+			HuffmanTree tree = new HuffmanTree(lf, MAX_CODE_LENGTH).canonical();
+			long[] codeBits = tree.codeBits;
+			byte[] codeLength = tree.codeLength;
+			CompressedFileHeader header = new CompressedFileHeader(tree, lf.getTotal(), CompressedFileHeader.FLAG_BYTES);
+			if (!HuffmanOutputStream.worthCoding(tree, lf, header)) { // as HuffmanOutputStream, the bytes as they are
+				ByteArrayOutputStream storedHeader = new ByteArrayOutputStream();
+				CompressedFileHeader.stored().write(storedHeader);
+				ByteBuffer buffer = ByteBuffer.wrap(storedHeader.toByteArray());
+				while (buffer.hasRemaining())
+					out.write(buffer);
+				for (MappedByteBuffer window : windows)
+					while (window.hasRemaining())
+						out.write(window);
+				return;
+			}
+
+			CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.ENCODE);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+			ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+			header.write(headerBytes);
+			buffer.put(headerBytes.toByteArray());
+
+			long bitBuffer = 0; // bits not yet in buffer, right-aligned (higher bits are ignored)
+			int numBits = 0;    // 0 to 63
+			for (MappedByteBuffer window : windows) {
+				int limit = window.limit();
+				for (int i = 0; i < limit; i += 8) {
+					// a long at a time: reads of a direct buffer are bounds-checked one by one
+					long word = i + 8 <= limit ? window.getLong(i) : tail(window, i);
+					for (int shift = 56, last = 8 * Math.max(0, i + 8 - limit); shift >= last; shift -= 8) {
+						int c = (int) (word >>> shift) & 0xFF;
+						int length = codeLength[c];
+						if (numBits + length < 64) {
+							bitBuffer = (bitBuffer << length) | codeBits[c];
+							numBits += length;
+						}
+						else { // a whole word: numBits >= 32, so the shifts are below 64
+							int rest = numBits + length - 64;
+							if (buffer.remaining() < 8)
+								write(out, buffer);
+							buffer.putLong((bitBuffer << (64 - numBits)) | (codeBits[c] >>> rest));
+							bitBuffer = codeBits[c];
+							numBits = rest;
+						}
+					}
+				}
+			}
+
+			// EndOfBytes, then as BufferedBitWriter.close: the last bits and their count
+			int end = tree.getEndOfText();
+			if (buffer.remaining() < 32)
+				write(out, buffer);
+			if (numBits + codeLength[end] >= 64) {
+				for (; numBits >= 8; numBits -= 8)
+					buffer.put((byte) (bitBuffer >>> (numBits - 8)));
+			}
+			bitBuffer = (bitBuffer << codeLength[end]) | codeBits[end];
+			numBits += codeLength[end];
+			for (; numBits >= 8; numBits -= 8)
+				buffer.put((byte) (bitBuffer >>> (numBits - 8)));
+			buffer.put((byte) (bitBuffer << (8 - numBits)));
+			buffer.put((byte) numBits);
+			write(out, buffer);
+			if (timer != null)
+				timer.end(lf.getTotal(), out.size(), lf.getTotal() + 1);
+		}
+	}
+
+	/**
+	 * Restores the file compressed into compressedFile (by compress(), CompressFile
+	 * or HuffmanOutputStream)
+	 *
+	 * @throws IOException if compressedFile is not a valid compressed byte stream
+	 */
+	public void decompress(String compressedFile, String fileName) throws IOException {
+		try (FileChannel in = FileChannel.open(Paths.get(compressedFile), StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+					 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = in.size();
+			byte[] start = BlockCompressor.readFully(in, 0, (int) Math.min(size, MAX_HEADER_SIZE));
+			ByteArrayInputStream headerBytes = new ByteArrayInputStream(start);
+			CompressedFileHeader header = CompressedFileHeader.read(headerBytes);
+			if (header.isStored()) { // the bytes as they are
+				for (long position = CompressedFileHeader.STORED_HEADER_SIZE; position < size; )
+					position += in.transferTo(position, size - position, out);
+				return;
+			}
+			if (header.getFlags() != CompressedFileHeader.FLAG_BYTES)
+				throw new IOException("Not a compressed byte stream of fixed length (use HuffmanInputStream)");
+			HuffmanTree tree = header.buildTree();
+			long payloadStart = start.length - headerBytes.available();
+			if (size - payloadStart < 2)
+				throw new IOException("Compressed file is truncated");
+			if (tree.getMaxCodeLength() > 56) { // longer than a refilled buffer holds
+				streamDecompress(in, out, header, payloadStart);
+				return;
+			}
+
+			CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.DECODE);
+			MappedBits bits = new MappedBits(in, payloadStart, size);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+			long length = header.getOriginalLength();
+			for (long i = 0; i < length; i++) {
+				bits.refill();
+				int decoded = tree.lookupCode(bits.bitBuffer);
+				int codeLength = decoded & 0xFF;
+				if (codeLength > bits.numBits || codeLength > bits.bitsLeft || decoded >>> 16 != 0)
+					throw new IOException("Compressed file is truncated or corrupt");
+				bits.consume(codeLength);
+				if (!buffer.hasRemaining())
+					write(out, buffer);
+				buffer.put((byte) (decoded >>> 8));
+			}
+			bits.refill();
+			int decoded = tree.lookupCode(bits.bitBuffer);
+			if (decoded >>> 8 != tree.getEndOfText() || (decoded & 0xFF) > bits.bitsLeft)
+				throw new IOException("Compressed file is missing EndOfText");
+			write(out, buffer);
+			if (timer != null)
+				timer.end(size, length, length + 1);
+		}
+	}
+
+	/*
+	 * Maps the bytes from position to end of a file in windows of at most MAP_SIZE bytes
+	 */
+	static MappedByteBuffer[] map(FileChannel channel, long position, long end) throws IOException {
+		int count = (int) ((end - position + MAP_SIZE - 1) / MAP_SIZE);
+		MappedByteBuffer[] windows = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long from = position + (long) i * MAP_SIZE;
+			windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(MAP_SIZE, end - from));
+		}
+		return windows;
+	}
+
+	// the last (fewer than 8) bytes of a buffer from position, left-aligned in a long
+	private static long tail(ByteBuffer buffer, int position) {
+		long word = 0;
+		for (int i = position, shift = 56; i < buffer.limit(); i++, shift -= 8)
+			word |= (buffer.get(i) & 0xFFL) << shift;
+		return word;
+	}
+
+	// writes out what buffer holds and empties it
+	private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			out.write(buffer);
+		buffer.clear();
+	}
+
+	// codes too long for MappedBits: decode through HuffmanInputStream instead
+	private static void streamDecompress(FileChannel in, FileChannel out, CompressedFileHeader header,
+			long payloadStart) throws IOException {
+		in.position(payloadStart);
+		try (InputStream decoded = new HuffmanInputStream(java.nio.channels.Channels.newInputStream(in), header);
+			 OutputStream written = java.nio.channels.Channels.newOutputStream(out)) {
+			byte[] chunk = new byte[1 << 16];
+			int n = decoded.read(chunk);
+			while (n != -1) {
+				written.write(chunk, 0, n);
+				n = decoded.read(chunk);
+			}
+		}
+	}
+
+	/*
+	 * The bits of the payload of a mapped compressed file, from payloadStart to the
+	 * partial byte before the final bit count, read 8 bytes at a time into a 64-bit buffer
+	 */
+	private static class MappedBits {
+		long bitBuffer;         // left-aligned; bits below numBits may already hold the next bytes
+		int numBits;            // valid bits in bitBuffer
+		long bitsLeft;          // valid bits of the payload not yet consumed
+		private MappedByteBuffer[] windows;
+		private int windowIndex;
+		private MappedByteBuffer window;
+		private int position;   // next byte of window
+		private int limit;      // limit of window
+
+		MappedBits(FileChannel channel, long payloadStart, long size) throws IOException {
+			int lastCount = BlockCompressor.readFully(channel, size - 1, 1)[0] & 0xFF;
+			if (lastCount > 8)
+				throw new IOException("Last byte of the file is not a bit count: " + lastCount);
+			bitsLeft = 8 * (size - 2 - payloadStart) + lastCount;
+			windows = map(channel, payloadStart, size - 1);
+			window = windows[0];
+			limit = window.limit();
+		}
+
+		// fills bitBuffer to at least 57 bits, or with every byte left
+		void refill() {
+			if (position + 8 <= limit) {
+				bitBuffer |= window.getLong(position) >>> numBits;
+				position += (63 - numBits) >>> 3;
+				numBits |= 56;
+				return;
+			}
+			while (numBits <= 56) {
+				if (position == limit) {
+					if (windowIndex + 1 == windows.length)
+						return;
+					window = windows[++windowIndex];
+					position = 0;
+					limit = window.limit();
+				}
+				bitBuffer |= (window.get(position++) & 0xFFL) << (56 - numBits);
+				numBits += 8;
+			}
+		}
+
+		void consume(int n) {
+			bitBuffer <<= n;
+			numBits -= n;
+			bitsLeft -= n;
+		}
+	}
+}
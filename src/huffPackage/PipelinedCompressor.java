@@ -0,0 +1,316 @@
+package huffPackage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compresses and decompresses files in the format of FileManipulation.CompressFile
+ * with three threads working at the same time, so that disk I/O and coding overlap
+ * instead of taking turns:
+ *
+ *   reader   reads the input file into chunks
+ *   coder    encodes (or decodes) the chunks it gets from the reader, filling chunks
+ *            for the writer
+ *   writer   writes the chunks it gets to the output file
+ *
+ * Each pair of stages is linked by a Pipe: a RingBuffer of filled chunks going
+ * downstream and one of emptied chunks going back upstream for reuse. Only
+ * ringCapacity chunks exist per pipe, so a stage that gets ahead of the next one
+ * waits for a chunk to come back (backpressure), and memory use stays at
+ * 2 * ringCapacity * chunkSize bytes whatever the size of the file.
+ *
+ * The letter frequencies needed for the code are counted before the pipeline starts.
+ *
+ * @author Armand
+ */
+public class PipelinedCompressor {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 18;
+	public static final int DEFAULT_RING_CAPACITY = 4;
+
+	private int chunkSize;     // bytes per chunk
+	private int ringCapacity;  // chunks per pipe
+
+	public PipelinedCompressor() {
+		this(DEFAULT_CHUNK_SIZE, DEFAULT_RING_CAPACITY);
+	}
+
+	/**
+	 * @param chunkSize the number of bytes handed from one stage to the next at a time
+	 * @param ringCapacity the number of chunks between two stages
+	 */
+	public PipelinedCompressor(int chunkSize, int ringCapacity) {
+		if (chunkSize < 1 || ringCapacity < 1)
+			throw new IllegalArgumentException("Invalid chunk size " + chunkSize + " or ring capacity " + ringCapacity);
+		this.chunkSize = chunkSize;
+		this.ringCapacity = ringCapacity;
+	}
+
+	/**
+	 * Compresses fileName into compressedFile
+	 *
+	 * @throws IOException if a stage fails
+	 */
+	public void compress(String fileName, String compressedFile) throws IOException {
+		LetterFrequencies lf;
+		try (InputStream in = new FileInputStream(fileName)) {
+			lf = new LetterFrequencies(in);
+		}
+		Pipe toCoder = new Pipe(ringCapacity, chunkSize);
+		Pipe toWriter = new Pipe(ringCapacity, chunkSize);
+		run(new Pipe[] { toCoder, toWriter },
+				() -> readStage(fileName, toCoder),
+				() -> {
+					// timed on the coder thread, so that its tree build and bit writes are left out
+					PipeOutputStream piped = new PipeOutputStream(toWriter);
+					CompressionMetrics.PhaseTimer timer;
+					try (OutputStream codes = new HuffmanOutputStream(piped, lf)) {
+						timer = CompressionMetrics.start(CompressionMetrics.Phase.ENCODE);
+						for (Chunk chunk = toCoder.full.take(); chunk != null; chunk = toCoder.full.take()) {
+							codes.write(chunk.bytes, 0, chunk.length);
+							toCoder.free.put(chunk);
+						}
+					}
+					if (timer != null)
+						timer.end(lf.getTotal(), piped.written, lf.getTotal() + 1);
+				},
+				() -> writeStage(toWriter, compressedFile));
+	}
+
+	/**
+	 * Restores the file compressed into compressedFile
+	 *
+	 * @throws IOException if compressedFile is not a valid compressed file, or a stage fails
+	 */
+	public void decompress(String compressedFile, String fileName) throws IOException {
+		Pipe toCoder = new Pipe(ringCapacity, chunkSize);
+		Pipe toWriter = new Pipe(ringCapacity, chunkSize);
+		run(new Pipe[] { toCoder, toWriter },
+				() -> readStage(compressedFile, toCoder),
+				() -> {
+					// timed on the coder thread, so that its tree build is left out
+					CompressionMetrics.PhaseTimer timer = CompressionMetrics.start(CompressionMetrics.Phase.DECODE);
+					long length = 0;
+					try (InputStream decoded = new HuffmanInputStream(new PipeInputStream(toCoder))) {
+						while (true) {
+							Chunk chunk = toWriter.free.take();
+							chunk.length = readFully(decoded, chunk.bytes);
+							if (chunk.length == 0)
+								break;
+							length += chunk.length;
+							toWriter.full.put(chunk);
+						}
+					}
+					toWriter.full.close();
+					if (timer != null)
+						timer.end(new File(compressedFile).length(), length, length + 1);
+				},
+				() -> writeStage(toWriter, fileName));
+	}
+
+	/*
+	 * Runs each stage on a thread of its own and waits for all of them. When a stage
+	 * fails the pipes are failed too, so that no stage keeps waiting on them, and the
+	 * first failure is thrown.
+	 */
+	private static void run(Pipe[] pipes, Stage reader, Stage coder, Stage writer) throws IOException {
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Stage[] stages = { reader, coder, writer };
+		String[] names = { "huffman-reader", "huffman-coder", "huffman-writer" };
+		Thread[] threads = new Thread[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			Stage stage = stages[i];
+			threads[i] = new Thread(() -> {
+				try {
+					stage.run();
+				} catch (Throwable t) {
+					if (failure.compareAndSet(null, t)) {
+						for (Pipe pipe : pipes)
+							pipe.fail(t);
+					}
+				}
+			}, names[i]);
+			threads[i].start();
+		}
+		try {
+			for (Thread thread : threads)
+				thread.join();
+		} catch (InterruptedException e) {
+			for (Pipe pipe : pipes)
+				pipe.fail(e);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the pipeline", e);
+		}
+		Throwable t = failure.get();
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t != null)
+			throw new IOException("Pipeline stage failed", t);
+	}
+
+	// fills chunks from a file until its end
+	private static void readStage(String fileName, Pipe to) throws IOException {
+		try (InputStream in = new FileInputStream(fileName)) {
+			while (true) {
+				Chunk chunk = to.free.take();
+				chunk.length = readFully(in, chunk.bytes);
+				if (chunk.length == 0)
+					break;
+				to.full.put(chunk);
+			}
+		}
+		to.full.close();
+	}
+
+	// writes the chunks to a file until the pipe is closed
+	private static void writeStage(Pipe from, String fileName) throws IOException {
+		try (OutputStream out = new FileOutputStream(fileName)) {
+			for (Chunk chunk = from.full.take(); chunk != null; chunk = from.full.take()) {
+				out.write(chunk.bytes, 0, chunk.length);
+				from.free.put(chunk);
+			}
+		}
+	}
+
+	// reads until b is full or the stream ends, returning the number of bytes read
+	private static int readFully(InputStream in, byte[] b) throws IOException {
+		int length = 0;
+		while (length < b.length) {
+			int n = in.read(b, length, b.length - length);
+			if (n == -1)
+				break;
+			length += n;
+		}
+		return length;
+	}
+
+	private interface Stage {
+		void run() throws IOException;
+	}
+
+	private static class Chunk {
+		byte[] bytes;
+		int length;    // bytes used
+
+		Chunk(int size) {
+			bytes = new byte[size];
+		}
+	}
+
+	/*
+	 * Link between two stages: filled chunks go downstream through full, and come
+	 * back through free once used. The chunks all start in free.
+	 */
+	private static class Pipe {
+		RingBuffer<Chunk> full;
+		RingBuffer<Chunk> free;
+
+		Pipe(int capacity, int chunkSize) throws IOException {
+			full = new RingBuffer<Chunk>(capacity);
+			free = new RingBuffer<Chunk>(capacity);
+			for (int i = 0; i < capacity; i++)
+				free.put(new Chunk(chunkSize));
+		}
+
+		void fail(Throwable cause) {
+			full.fail(cause);
+			free.fail(cause);
+		}
+	}
+
+	/*
+	 * Stream filling the chunks of a pipe; closing it sends the last chunk and closes the pipe
+	 */
+	private static class PipeOutputStream extends OutputStream {
+		private Pipe pipe;
+		private Chunk chunk;   // being filled, or null
+		long written;          // bytes written so far
+
+		PipeOutputStream(Pipe pipe) {
+			this.pipe = pipe;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (chunk == null) {
+					chunk = pipe.free.take();
+					chunk.length = 0;
+				}
+				int n = Math.min(len, chunk.bytes.length - chunk.length);
+				System.arraycopy(b, off, chunk.bytes, chunk.length, n);
+				chunk.length += n;
+				written += n;
+				off += n;
+				len -= n;
+				if (chunk.length == chunk.bytes.length) {
+					pipe.full.put(chunk);
+					chunk = null;
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (chunk != null)
+				pipe.full.put(chunk);
+			chunk = null;
+			pipe.full.close();
+		}
+	}
+
+	/*
+	 * Stream reading the chunks of a pipe, handing each back once read
+	 */
+	private static class PipeInputStream extends InputStream {
+		private Pipe pipe;
+		private Chunk chunk;   // being read, or null
+		private int position;  // next byte of chunk
+
+		PipeInputStream(Pipe pipe) {
+			this.pipe = pipe;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (chunk == null || position == chunk.length) {
+				if (chunk != null)
+					pipe.free.put(chunk);
+				chunk = pipe.full.take();
+				position = 0;
+				if (chunk == null)
+					return -1;
+			}
+			int n = Math.min(len, chunk.length - position);
+			System.arraycopy(chunk.bytes, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		// hands back the chunks left unread, so the stage upstream is not left waiting for them
+		@Override
+		public void close() throws IOException {
+			if (chunk != null)
+				pipe.free.put(chunk);
+			for (chunk = pipe.full.take(); chunk != null; chunk = pipe.full.take())
+				pipe.free.put(chunk);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package huffPackage;
+import java.util.Arrays;
+
+/**
+ * Array Heap implementation of a priority queue specialized for long keys and int values.
+ * Keys and values are kept in two parallel primitive arrays, so the primitive methods
+ * (insert(long, int), minKey, minValue, removeMinValue) allocate nothing; the arrays
+ * grow on demand and the heap is restored with iterative loops.
+ * 
+ * Callers needing ties broken in a given order pack the tie-breaker into the low bits
+ * of the key (e.g. frequency << 32 | symbol).
+ * 
+ * The generic PriorityQueue methods are also provided, boxing keys and values into
+ * Entry objects, for code written against the interface.
+ * 
+ * @author Armand
+ */
+public class PrimitiveHeapPriorityQueue implements PriorityQueue<Long, Integer> {
+
+    private long[] keys;     //The Heap itself in array form: keys...
+    private int[] values;    //...and the value stored with each key
+    private int size;        //Number of elements in the heap
+
+    /**
+    * Default constructor
+    */
+    public PrimitiveHeapPriorityQueue(){
+        this(16);
+    }
+
+    /**
+    * PrimitiveHeapPriorityQueue constructor with initial room for capacity elements
+    */
+    public PrimitiveHeapPriorityQueue(int capacity){
+        keys = new long[Math.max(1, capacity)];
+        values = new int[keys.length];
+        size = 0;
+    }
+
+    /****************************************************
+     * 
+     *             Primitive Methods
+     * 
+     ****************************************************/
+
+    /**
+    * Inserts a key-value pair, growing the heap if it is full.
+    * O(log(n)) amortized
+    */
+    public void insert(long key, int value){
+        if(size == keys.length){
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        int location = size++;
+        while(location > 0){ // move parents down until the new key fits
+            int parent = (location - 1) / 2;
+            if(keys[parent] <= key) break;
+            keys[location] = keys[parent];
+            values[location] = values[parent];
+            location = parent;
+        }
+        keys[location] = key;
+        values[location] = value;
+    }
+
+    /**
+    * Returns a minimal key.
+    * O(1)
+    * @throws IllegalStateException if the heap is empty
+    */
+    public long minKey(){
+        if(size == 0) throw new IllegalStateException("Heap is empty");
+        return keys[0];
+    }
+
+    /**
+    * Returns the value stored with a minimal key.
+    * O(1)
+    * @throws IllegalStateException if the heap is empty
+    */
+    public int minValue(){
+        if(size == 0) throw new IllegalStateException("Heap is empty");
+        return values[0];
+    }
+
+    /**
+    * Removes an entry with minimal key and returns its value.
+    * O(log(n))
+    * @throws IllegalStateException if the heap is empty
+    */
+    public int removeMinValue(){
+        if(size == 0) throw new IllegalStateException("Heap is empty");
+        int ret = values[0];
+        size--;
+        if(size > 0) siftDown(keys[size], values[size]);
+        return ret;
+    }
+
+    /*
+     * Places key and value, taken from the tail, starting at the root:
+     * smaller children move up until the key fits
+     */
+    private void siftDown(long key, int value){
+        int location = 0;
+        int half = size / 2; // locations below half have at least one child
+        while(location < half){
+            int child = 2 * location + 1;
+            if(child + 1 < size && keys[child + 1] < keys[child]) child++;
+            if(key <= keys[child]) break;
+            keys[location] = keys[child];
+            values[location] = values[child];
+            location = child;
+        }
+        keys[location] = key;
+        values[location] = value;
+    }
+
+    /**
+    * Removes every entry, keeping the arrays for reuse.
+    */
+    public void clear(){
+        size = 0;
+    }
+
+    /****************************************************
+     * 
+     *             Priority Queue Methods
+     * 
+     ****************************************************/
+
+    /**
+    * Returns the number of items in the priority queue.
+    * O(1)
+    * @return number of items
+    */
+    public int size(){
+        return size;
+    }
+
+    /**
+    * Tests whether the priority queue is empty.
+    * O(1)
+    * @return true if the priority queue is empty, false otherwise
+    */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+    * Inserts a key-value pair and returns an entry holding them (boxed).
+    * O(log(n)) amortized
+    */
+    public Entry<Long, Integer> insert(Long key, Integer value){
+        insert(key.longValue(), value.intValue());
+        return new Entry<Long, Integer>(key, value);
+    }
+
+    /**
+    * Returns (but does not remove) an entry with minimal key.
+    * O(1)
+    * @return entry having a minimal key (or null if empty)
+    */
+    public Entry<Long, Integer> min(){
+        if(isEmpty()) return null;
+        return new Entry<Long, Integer>(keys[0], values[0]);
+    }
+
+    /**
+    * Removes and returns an entry with minimal key.
+    * O(log(n))
+    * @return the removed entry (or null if empty)
+    */
+    public Entry<Long, Integer> removeMin(){
+        if(isEmpty()) return null;
+        long key = keys[0];
+        return new Entry<Long, Integer>(key, removeMinValue());
+    }
+}
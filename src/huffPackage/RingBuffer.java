@@ -0,0 +1,106 @@
+package huffPackage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Bounded first-in first-out queue on a circular array, handing items from one thread
+ * to another. put() blocks while the buffer is full, so a producer that gets ahead
+ * waits for its consumer (backpressure) instead of piling up items, and take() blocks
+ * while it is empty. The producer close()s the buffer after its last item; fail()
+ * wakes up and stops both sides, e.g. when the thread on the other side has died.
+ *
+ * @author Armand
+ */
+public class RingBuffer<E> {
+
+	private Object[] slots;     // the circular array
+	private int head;           // slot of the next item taken
+	private int count;          // number of items in the buffer
+	private boolean closed;     // no more items will be put
+	private Throwable failure;  // why the buffer was failed, or null
+
+	/**
+	 * RingBuffer holding at most capacity items
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Invalid ring buffer capacity " + capacity);
+		slots = new Object[capacity];
+	}
+
+	/**
+	 * Adds an item at the tail, waiting while the buffer is full
+	 *
+	 * @throws IOException if the buffer failed, or the thread was interrupted while waiting
+	 */
+	public synchronized void put(E item) throws IOException {
+		while (count == slots.length && failure == null)
+			await();
+		checkFailure();
+		if (closed)
+			throw new IllegalStateException("put on a closed ring buffer");
+		slots[(head + count) % slots.length] = item;
+		count++;
+		notifyAll();
+	}
+
+	/**
+	 * Removes the item at the head, waiting while the buffer is empty
+	 *
+	 * @return the item, or null once the buffer is closed and empty
+	 * @throws IOException if the buffer failed, or the thread was interrupted while waiting
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized E take() throws IOException {
+		while (count == 0 && !closed && failure == null)
+			await();
+		checkFailure();
+		if (count == 0)
+			return null;
+		E item = (E) slots[head];
+		slots[head] = null;
+		head = (head + 1) % slots.length;
+		count--;
+		notifyAll();
+		return item;
+	}
+
+	/**
+	 * Marks the end of the items: take() returns null once the items put are taken
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Makes put() and take() throw, now and in any thread waiting in them
+	 */
+	public synchronized void fail(Throwable cause) {
+		if (failure == null)
+			failure = cause;
+		notifyAll();
+	}
+
+	public synchronized int size() {
+		return count;
+	}
+
+	public int capacity() {
+		return slots.length;
+	}
+
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting on a ring buffer");
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null)
+			throw new IOException("Ring buffer failed: " + failure, failure);
+	}
+}
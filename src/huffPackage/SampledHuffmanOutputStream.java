@@ -0,0 +1,130 @@
+package huffPackage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream that Huffman-compresses the bytes written to it with a code built
+ * from a sample of them: the first sampleSize bytes are held back and counted, the
+ * CompressedFileHeader of that code is written, and from then on every byte is
+ * encoded as it comes. Unlike HuffmanOutputStream, the data does not have to be
+ * read twice, which matters for huge inputs, at a small cost in compression.
+ *
+ * Bytes that do not show up in the sample are written as the code of the escape
+ * symbol HuffmanTree.EscapeBytes followed by the byte itself. The length of the data
+ * is not known when the header is written, so the data ends at EndOfText.
+ * HuffmanInputStream decompresses it. Closing the stream closes the target stream.
+ *
+ * @author Armand
+ */
+public class SampledHuffmanOutputStream extends OutputStream {
+
+    public static final int DEFAULT_SAMPLE_SIZE = 1 << 20;
+
+    private OutputStream out;         // the target stream, until the header is written
+    private int maxCodeLength;        // the longest code allowed
+    private byte[] sample;            // the first bytes, until the code is built
+    private int sampled;              // number of bytes in sample
+    private HuffmanTree tree;         // canonical tree built from the sample
+    private BufferedBitWriter bits;   // receives the codes
+    private boolean closed;
+
+    /**
+     * Gets ready to build the code from the first DEFAULT_SAMPLE_SIZE bytes
+     *
+     * @param out the stream receiving the compressed data
+     */
+    public SampledHuffmanOutputStream(OutputStream out) {
+        this(out, DEFAULT_SAMPLE_SIZE, 64);
+    }
+
+    /**
+     * Gets ready to build the code from the first sampleSize bytes, with codes
+     * of at most maxCodeLength bits
+     *
+     * @param out the stream receiving the compressed data
+     * @param sampleSize the number of bytes counted to build the code
+     * @param maxCodeLength the longest code allowed (see HuffmanTree(LetterFrequencies, int))
+     */
+    public SampledHuffmanOutputStream(OutputStream out, int sampleSize, int maxCodeLength) {
+        if (sampleSize < 0)
+            throw new IllegalArgumentException("Invalid sample size " + sampleSize);
+        this.out = out;
+        this.maxCodeLength = maxCodeLength;
+        sample = new byte[sampleSize];
+    }
+
+    /**
+     * Encodes one byte, or adds it to the sample
+     */
+    @Override
+    public void write(int b) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (tree == null) {
+            if (sampled < sample.length) {
+                sample[sampled++] = (byte) b;
+                return;
+            }
+            startCoding();
+        }
+        writeCode(b & 0xFF);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (tree == null) {
+            int n = Math.min(len, sample.length - sampled);
+            System.arraycopy(b, off, sample, sampled, n);
+            sampled += n;
+            off += n;
+            len -= n;
+            if (len == 0)
+                return;
+            startCoding();
+        }
+        for (int i = off; i < off + len; i++)
+            writeCode(b[i] & 0xFF);
+    }
+
+    /*
+     * Builds the code from the sample, writes the header and encodes the sample
+     */
+    private void startCoding() throws IOException {
+        LetterFrequencies letterFreq = new LetterFrequencies(sample, sampled);
+        tree = new HuffmanTree(letterFreq, maxCodeLength).canonical();
+        new CompressedFileHeader(tree, CompressedFileHeader.UNKNOWN_LENGTH,
+                CompressedFileHeader.FLAG_BYTES | CompressedFileHeader.FLAG_ESCAPE).write(out);
+        bits = new BufferedBitWriter(out);
+        out = null;
+        for (int i = 0; i < sampled; i++)
+            writeCode(sample[i] & 0xFF);
+        sample = null;
+    }
+
+    private void writeCode(int c) throws IOException {
+        if (tree.leafWhereLetterIs[c] != null)
+            bits.writeBits(tree.codeBits[c], tree.codeLength[c]);
+        else {
+            bits.writeBits(tree.codeBits[HuffmanTree.EscapeBytes], tree.codeLength[HuffmanTree.EscapeBytes]);
+            bits.writeBits(c, 8);
+        }
+    }
+
+    /**
+     * Writes EndOfText (after the header and the sample, if fewer bytes than the
+     * sample size were written) and closes the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        if (tree == null)
+            startCoding();
+        closed = true;
+        int endOfText = tree.getEndOfText();
+        bits.writeBits(tree.codeBits[endOfText], tree.codeLength[endOfText]);
+        bits.close();
+    }
+}
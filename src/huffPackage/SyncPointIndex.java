@@ -0,0 +1,148 @@
+package huffPackage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Side index of a file written by FileManipulation.Compress, recording where the
+ * code of every interval-th character starts. Huffman codes can only be decoded
+ * from the start of a code, so with the index a range of characters is decoded from
+ * the closest sync point before it instead of from the start of the file.
+ *
+ * Layout of the index file (multi-byte numbers are big-endian):
+ *   4 bytes   magic "HUFS"
+ *   1 byte    format version
+ *   4 bytes   interval, in characters
+ *   8 bytes   number of characters of the text
+ *   8 bytes   offset of the first bit of the codes in the compressed file
+ *   4 bytes   number of sync points, then per sync point
+ *   8 bytes   bit offset, from the first bit of the codes, of character i*interval
+ *
+ * @author Armand
+ */
+public class SyncPointIndex {
+
+	static final byte[] MAGIC = { 'H', 'U', 'F', 'S' };
+	static final int VERSION = 1;
+	public static final int DEFAULT_INTERVAL = 4096;
+
+	private int interval;          // characters between sync points
+	private long textLength;       // number of characters of the text
+	private long payloadOffset;    // byte offset of the codes in the compressed file
+	private long[] bitOffsets;     // bit offset of character i*interval
+	private int count;             // number of sync points in bitOffsets
+
+	/**
+	 * Starts an empty index, filled in by add() while encoding
+	 *
+	 * @param interval the number of characters between sync points
+	 * @param textLength the number of characters of the text
+	 * @param payloadOffset the byte offset of the codes in the compressed file
+	 */
+	public SyncPointIndex(int interval, long textLength, long payloadOffset) {
+		if (interval < 1)
+			throw new IllegalArgumentException("Invalid sync interval " + interval);
+		this.interval = interval;
+		this.textLength = textLength;
+		this.payloadOffset = payloadOffset;
+		bitOffsets = new long[(int) Math.min(Integer.MAX_VALUE - 8, (textLength + interval - 1) / interval)];
+	}
+
+	/**
+	 * Records the bit offset of the next sync point (character count()*interval)
+	 */
+	void add(long bitOffset) {
+		bitOffsets[count++] = bitOffset;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public long getTextLength() {
+		return textLength;
+	}
+
+	public long getPayloadOffset() {
+		return payloadOffset;
+	}
+
+	/**
+	 * The number of sync points
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * The character decoding has to start at to reach character position:
+	 * the last sync point at or before it
+	 */
+	public long syncCharacter(long position) {
+		return Math.min(position / interval, count - 1) * interval;
+	}
+
+	/**
+	 * The bit offset, from the first bit of the codes, of syncCharacter(position)
+	 */
+	public long syncBitOffset(long position) {
+		return bitOffsets[(int) Math.min(position / interval, count - 1)];
+	}
+
+	/**
+	 * Writes the index to a file
+	 *
+	 * @throws IOException
+	 */
+	public void write(String indexFile) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(interval);
+			out.writeLong(textLength);
+			out.writeLong(payloadOffset);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++)
+				out.writeLong(bitOffsets[i]);
+		}
+	}
+
+	/**
+	 * Reads an index written by write()
+	 *
+	 * @throws IOException if the file is not a valid index
+	 */
+	public static SyncPointIndex read(String indexFile) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException("Not a sync point index (bad magic number)");
+			int version = in.readUnsignedByte();
+			if (version != VERSION)
+				throw new IOException("Unsupported sync point index version " + version);
+			int interval = in.readInt();
+			long textLength = in.readLong();
+			long payloadOffset = in.readLong();
+			int count = in.readInt();
+			if (interval < 1 || textLength < 0 || payloadOffset < 0
+					|| count != (textLength + interval - 1) / interval)
+				throw new IOException("Corrupt sync point index");
+			SyncPointIndex index = new SyncPointIndex(interval, textLength, payloadOffset);
+			long previous = -1;
+			for (int i = 0; i < count; i++) {
+				long bitOffset = in.readLong();
+				if (bitOffset <= previous)
+					throw new IOException("Corrupt sync point index");
+				index.add(bitOffset);
+				previous = bitOffset;
+			}
+			return index;
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package huffPackage;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ *
+ * Main program for the purpose of testing that every way of compressing bytes
+ * gives back the very bytes it was given: CompressFile and CompressFileSampled,
+ * the adaptive streams, BlockCompressor (plain and interleaved, with verify),
+ * InterleavedHuffman, MappedFileCompressor, PipelinedCompressor, DecompressRange
+ * over a SyncPointIndex, HuffmanDictionary, HuffmanArchive and BatchCompressor.
+ *
+ * Besides Test1.txt to Test5.txt, the inputs are the edge cases of the coding:
+ * no bytes at all, a single byte, one byte repeated (a single letter), every byte
+ * value once in random order (which does not pay to code) and a skewed mix where
+ * a few bytes make up nearly everything (which has long codes).
+ * It also checks that the codes of HuffmanTree(lf, maxCodeLength) are no longer
+ * than asked and still make up a complete code (a Kraft sum of exactly 1).
+ *
+ * Everything is written into a temporary directory, deleted at the end.
+ *
+ * @author Armand
+ */
+public class TestHuffmanWithBytes {
+
+	// one way of compressing fileName into compressedFile and back into decompressedFile
+	private interface RoundTrip {
+		void run(String fileName, String compressedFile, String decompressedFile) throws IOException;
+	}
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		long startTime = System.currentTimeMillis();
+		FileManipulation rf = new FileManipulation();
+		Random random = new Random(2016);
+
+		//Textfiles of free E-Books from https://www.gutenberg.org/ in plaintext
+		String [] textFiles = {
+				"Test1.txt",
+				"Test2.txt",
+				"Test3.txt",
+				"Test4.txt",
+				"Test5.txt"
+		};
+
+		List<String> names = new ArrayList<String>();
+		List<byte[]> inputs = new ArrayList<byte[]>();
+		names.add("empty");
+		inputs.add(new byte[0]);
+		names.add("one-byte");
+		inputs.add(new byte[] { 'A' });
+		names.add("constant");
+		byte[] constant = new byte[10000];
+		Arrays.fill(constant, (byte) 'x');
+		inputs.add(constant);
+		names.add("random-256");
+		inputs.add(shuffledBytes(random));
+		names.add("skewed");
+		inputs.add(skewedBytes(random, 100000));
+		for (String textFile : textFiles) {
+			names.add(textFile);
+			inputs.add(Files.readAllBytes(Paths.get(textFile)));
+		}
+
+		Path dir = Files.createTempDirectory("huffman-bytes");
+		HuffmanDictionary dictionary = HuffmanDictionary.train(7, textFiles);
+		List<String> files = new ArrayList<String>();
+		try {
+			for (int i = 0; i < inputs.size(); i++) {
+				byte[] input = inputs.get(i);
+				String file = dir.resolve(names.get(i)).toString();
+				Files.write(Paths.get(file), input);
+				files.add(file);
+				System.out.println(">>>> Testing " + names.get(i) + " (" + input.length + " bytes):\n");
+
+				check("CompressFile", file, input, (f, c, d) -> {
+					rf.CompressFile(f, c);
+					rf.DecompressFile(c, d);
+				});
+				check("CompressFileSampled", file, input, (f, c, d) -> {
+					rf.CompressFileSampled(f, c, 64); // a small sample, so that bytes get escaped
+					rf.DecompressFile(c, d);
+				});
+				check("Adaptive streams", file, input, (f, c, d) -> {
+					try (OutputStream out = new AdaptiveHuffmanOutputStream(new FileOutputStream(c))) {
+						out.write(input);
+					}
+					try (InputStream in = new AdaptiveHuffmanInputStream(new FileInputStream(c))) {
+						Files.write(Paths.get(d), in.readAllBytes());
+					}
+				});
+				check("BlockCompressor", file, input, (f, c, d) -> {
+					BlockCompressor blocks = new BlockCompressor(4096, ForkJoinPool.commonPool());
+					blocks.compress(f, c);
+					blocks.verify(c);
+					blocks.decompress(c, d);
+				});
+				check("BlockCompressor, interleaved", file, input, (f, c, d) -> {
+					BlockCompressor blocks = new BlockCompressor(4096, ForkJoinPool.commonPool(), true);
+					blocks.compress(f, c);
+					blocks.verify(c);
+					blocks.decompress(c, d);
+				});
+				check("InterleavedHuffman", file, input, (f, c, d) -> {
+					Files.write(Paths.get(d), InterleavedHuffman.decode(InterleavedHuffman.encode(input, 0, input.length)));
+				});
+				check("MappedFileCompressor", file, input, (f, c, d) -> {
+					new MappedFileCompressor().compress(f, c);
+					new MappedFileCompressor().decompress(c, d);
+				});
+				check("PipelinedCompressor", file, input, (f, c, d) -> {
+					PipelinedCompressor pipeline = new PipelinedCompressor(1000, 2); // small chunks, so that the rings fill up
+					pipeline.compress(f, c);
+					pipeline.decompress(c, d);
+				});
+				check("HuffmanDictionary", file, input, (f, c, d) -> {
+					byte[] message = dictionary.encode(input);
+					if (HuffmanDictionary.idOf(message) != dictionary.getId())
+						throw new IOException("Message has dictionary ID " + HuffmanDictionary.idOf(message));
+					Files.write(Paths.get(d), dictionary.decode(message));
+				});
+				checkRange(rf, file);
+				System.out.println();
+			}
+
+			System.out.println(">>>> Testing all inputs together:\n");
+			checkArchive(dir, files, inputs);
+			checkBatch(dir, files, inputs);
+			System.out.println();
+
+			System.out.println(">>>> Testing length-limited trees:\n");
+			checkLimitedTrees(inputs.get(4));
+			System.out.println();
+		} finally {
+			try (Stream<Path> walk = Files.walk(dir)) {
+				for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator)
+					Files.delete(p);
+			}
+		}
+
+		if (failures == 0)
+			System.out.println("RESULT: Correctly encoding-decoding every input!\n");
+		else
+			System.out.println("WRONG: " + failures + " incorrect encodings-decodings\n");
+
+		long endTime   = System.currentTimeMillis();
+		long totalTime = (endTime - startTime) / 1000;
+		System.out.println(totalTime + " Seconds");
+	}
+
+	// Runs one round trip on a file, and checks that the decompressed file holds the input
+
+	private static void check(String coder, String file, byte[] input, RoundTrip roundTrip) {
+		String compressedFile = file + ".huf";
+		String decompressedFile = file + ".out";
+		try {
+			Files.deleteIfExists(Paths.get(decompressedFile));
+			roundTrip.run(file, compressedFile, decompressedFile);
+			byte[] decoded = Files.readAllBytes(Paths.get(decompressedFile));
+			if (Arrays.equals(input, decoded))
+				System.out.println(coder + ": OK");
+			else if (decoded.length != input.length)
+				fail(coder, decoded.length + " bytes decoded, not the " + input.length + " given");
+			else
+				fail(coder, "the bytes decoded differ from those given");
+		} catch (IOException | RuntimeException ex) {
+			fail(coder, ex.toString());
+		}
+	}
+
+	// Compress with a SyncPointIndex works on the text of a file (as Read gives it),
+	// so the whole text and a range of it are checked against that text
+
+	private static void checkRange(FileManipulation rf, String file) {
+		String text = rf.Read(file);
+		String compressedFile = file + ".txt.huf";
+		String indexFile = file + ".idx";
+		rf.Compress(file, compressedFile, indexFile, 64);
+		int from = text.length() / 3;
+		int to = 2 * text.length() / 3 + 1;
+		to = Math.min(to, text.length());
+		if (!text.equals(rf.Decompress(compressedFile, file + ".txt")))
+			fail("Compress with SyncPointIndex", "the text decoded is not the one given");
+		else if (!text.substring(from, to).equals(rf.DecompressRange(compressedFile, indexFile, from, to)))
+			fail("DecompressRange", "characters " + from + ".." + to + " decoded wrong");
+		else if (!text.substring(to).equals(rf.DecompressRange(compressedFile, indexFile, to, text.length())))
+			fail("DecompressRange", "characters " + to + ".." + text.length() + " decoded wrong");
+		else
+			System.out.println("Compress with SyncPointIndex, DecompressRange: OK");
+	}
+
+	// All the inputs in one archive: verified, and every entry extracted
+
+	private static void checkArchive(Path dir, List<String> files, List<byte[]> inputs) {
+		String archiveFile = dir.resolve("all.hufa").toString();
+		try {
+			HuffmanArchive.create(archiveFile, files);
+			try (HuffmanArchive archive = new HuffmanArchive(archiveFile)) {
+				archive.verify();
+				for (int i = 0; i < files.size(); i++) {
+					String name = Paths.get(files.get(i)).getFileName().toString();
+					String extracted = files.get(i) + ".extracted";
+					archive.extract(name, extracted);
+					if (archive.getEntry(name).getOriginalLength() != inputs.get(i).length
+							|| !Arrays.equals(inputs.get(i), Files.readAllBytes(Paths.get(extracted)))) {
+						fail("HuffmanArchive", "entry " + name + " extracted wrong");
+						return;
+					}
+				}
+			}
+			System.out.println("HuffmanArchive: OK");
+		} catch (IOException | RuntimeException ex) {
+			fail("HuffmanArchive", ex.toString());
+		}
+	}
+
+	// All the inputs compressed as a batch into one directory, and decompressed into another
+
+	private static void checkBatch(Path dir, List<String> files, List<byte[]> inputs) throws InterruptedException {
+		Path source = dir.resolve("batch");
+		Path compressed = dir.resolve("batch-compressed");
+		Path decompressed = dir.resolve("batch-decompressed");
+		try {
+			Files.createDirectories(source);
+			for (String file : files)
+				Files.copy(Paths.get(file), source.resolve(Paths.get(file).getFileName()));
+			BatchCompressor.Result compressing = new BatchCompressor(2, compressed).compress(Arrays.asList(source));
+			BatchCompressor.Result decompressing = new BatchCompressor(2, decompressed).decompress(Arrays.asList(compressed));
+			if (compressing.getFailed() + decompressing.getFailed() > 0
+					|| compressing.getFiles() != files.size() || decompressing.getFiles() != files.size()) {
+				fail("BatchCompressor", compressing + " then " + decompressing);
+				return;
+			}
+			for (int i = 0; i < files.size(); i++) {
+				Path decoded = decompressed.resolve(Paths.get(files.get(i)).getFileName());
+				if (!Arrays.equals(inputs.get(i), Files.readAllBytes(decoded))) {
+					fail("BatchCompressor", decoded.getFileName() + " decoded wrong");
+					return;
+				}
+			}
+			System.out.println("BatchCompressor: OK");
+		} catch (IOException | RuntimeException ex) {
+			fail("BatchCompressor", ex.toString());
+		}
+	}
+
+	// Letters with Fibonacci frequencies, whose Huffman codes are as long as there are letters,
+	// and the skewed bytes, limited more and more
+
+	private static void checkLimitedTrees(byte[] skewed) throws IOException {
+		char[] letters = new char[40];
+		long[] freq = new long[40];
+		long a = 1, b = 1;
+		for (int i = 0; i < letters.length; i++) {
+			letters[i] = (char) ('A' + i);
+			freq[i] = a;
+			long next = a + b;
+			a = b;
+			b = next;
+		}
+		LetterFrequencies fibonacci = new LetterFrequencies(letters, freq);
+		for (int maxCodeLength : new int[] { 64, 39, 30, 15, 8, 6 })
+			checkLimitedTree("Fibonacci letters", fibonacci, maxCodeLength);
+
+		LetterFrequencies bytes = new LetterFrequencies(new ByteArrayInputStream(skewed));
+		for (int maxCodeLength : new int[] { 32, 12, 9 })
+			checkLimitedTree("skewed bytes", bytes, maxCodeLength);
+	}
+
+	private static void checkLimitedTree(String what, LetterFrequencies lf, int maxCodeLength) {
+		String test = "HuffmanTree(" + what + ", " + maxCodeLength + ")";
+		HuffmanTree tree = new HuffmanTree(lf, maxCodeLength);
+
+		// number of codes of each length, EndOfText included
+		int[] codesOfLength = new int[maxCodeLength + 1];
+		List<Integer> symbols = new ArrayList<Integer>();
+		for (char c : lf.getLetters())
+			symbols.add((int) c);
+		symbols.add(tree.getEndOfText());
+		for (int c : symbols) {
+			int length = tree.getCodeLength(c);
+			if (length < 1 || length > maxCodeLength) {
+				fail(test, "symbol " + c + " has a code of " + length + " bits");
+				return;
+			}
+			codesOfLength[length]++;
+		}
+
+		// Kraft sum: the codes left free at each length must run out exactly at the last one
+		long free = 1;
+		int symbolsLeft = symbols.size();
+		for (int length = 1; length <= maxCodeLength; length++) {
+			free = 2 * free - codesOfLength[length];
+			symbolsLeft -= codesOfLength[length];
+			if (free < 0 || free > symbolsLeft) // over-full, or can no longer be filled
+				break;
+		}
+		if (free != 0 || symbolsLeft != 0)
+			fail(test, "the code lengths do not sum to a complete code");
+		else
+			System.out.println(test + ": OK, longest code " + tree.getMaxCodeLength() + " bits");
+	}
+
+	private static void fail(String test, String why) {
+		failures++;
+		System.out.println("WRONG: " + test + ": " + why);
+	}
+
+	// every byte value once, in random order
+
+	private static byte[] shuffledBytes(Random random) {
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) i;
+		for (int i = bytes.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			byte t = bytes[i];
+			bytes[i] = bytes[j];
+			bytes[j] = t;
+		}
+		return bytes;
+	}
+
+	// half the bytes are 'a', a quarter 'b' and so on, with a random byte once in a while
+
+	private static byte[] skewedBytes(Random random, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte) (random.nextInt(1000) == 0 ? random.nextInt(256) : 'a' + Integer.numberOfTrailingZeros(random.nextInt() | 0x10000));
+		return bytes;
+	}
+}
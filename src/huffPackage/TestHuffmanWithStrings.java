@@ -21,8 +21,7 @@ public class TestHuffmanWithStrings {
 		long startTime = System.currentTimeMillis();
 		int index = 0;
 		FileManipulation rf = new FileManipulation();
-		String  codedText, decodedText, codedInBits;
-		LetterFrequencies fq;
+		String  codedText, stringDecodedText, decodedText;
 		
 		//Textfiles of free E-Books from https://www.gutenberg.org/ in plaintext
 		String [] textFiles = {
@@ -62,15 +61,16 @@ public class TestHuffmanWithStrings {
 		for (String plainText: textsToTest) {
 			System.out.println(">>>> Begining Encoding:\n"); 
 			codedText= testStringEncode(plainText); // encodes plainText into codedText
-			rf.WriteToBits(codedText, compressedFiles[index]);
+			rf.Compress(textFiles[index], compressedFiles[index]); // header and bits, no String of bits
 			System.out.println("\n>>>> Begining Decoding:\n");
-			codedInBits = rf.ReadBit(compressedFiles[index]);
-			fq=new LetterFrequencies(plainText);
-			decodedText=testStringDecode(codedInBits,fq); // decoded codedText into decodedText
-			rf.Write(decodedText, decompressedFiles[index]);
-			if (plainText.equals(decodedText)) // plainText must match decodedText
+			stringDecodedText = testStringDecode(codedText, new LetterFrequencies(plainText)); // decodes codedText back
+			decodedText = rf.Decompress(compressedFiles[index], decompressedFiles[index]); // uses nothing but the compressed file
+			if (plainText.equals(stringDecodedText) && plainText.equals(decodedText)) // plainText must match both decoded texts
 				System.out.println("RESULT: Correctly encoding-decoding!\n");
 				
+			else if (!plainText.equals(stringDecodedText)) {
+				System.out.println("WRONG: incorrect encoding-decoding of the String of bits");
+			}
 			else {
 				System.out.println("WRONG: incorrect encoding-decoding");
 			}